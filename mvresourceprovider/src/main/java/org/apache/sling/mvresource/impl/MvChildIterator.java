@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.mvresource.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.StreamStore;
+
+/**
+ * Iterates the children of a resource in the index of the children. Only the
+ * next key is read ahead, a resource and its value map are created when the
+ * caller gets to it, so a caller that stops early does not pay for the rest
+ * of the folder.
+ */
+public class MvChildIterator implements Iterator<Resource> {
+
+    private final ResourceResolver resolver;
+    private final MVMap<String, Object> resources;
+    private final StreamStore binaryStore;
+    private final String parentPath;
+    private final String prefix;
+    private final Cursor<String, Boolean> cursor;
+    private String next;
+
+    public MvChildIterator(ResourceResolver resolver, MVMap<String, Boolean> children,
+            MVMap<String, Object> resources, StreamStore binaryStore, String parentPath) {
+        this.resolver = resolver;
+        this.resources = resources;
+        this.binaryStore = binaryStore;
+        this.parentPath = parentPath;
+        this.prefix = MvValueMap.prefix(parentPath);
+        this.cursor = children.cursor(prefix);
+        next = seek();
+    }
+
+    private String seek() {
+        if (cursor.hasNext()) {
+            String key = cursor.next();
+            if (key.startsWith(prefix)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Resource next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        String childPath = parentPath + "/" + next.substring(prefix.length());
+        next = seek();
+        return new MvResource(resolver, childPath, new MvValueMap(resources, childPath, binaryStore));
+    }
+
+}
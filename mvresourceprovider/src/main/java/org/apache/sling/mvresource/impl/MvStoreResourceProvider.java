@@ -18,12 +18,8 @@
  */
 package org.apache.sling.mvresource.impl;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
+import java.io.File;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.sling.api.adapter.AdapterFactory;
@@ -37,57 +33,134 @@ import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.StreamStore;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Component(service = { ResourceProvider.class, AdapterFactory.class }, property = {
         Constants.SERVICE_DESCRIPTION + "=Sling Mv Resource Provider",
         Constants.SERVICE_VENDOR + "=The Apache Software Foundation",
-        ResourceProvider.PROPERTY_ROOT + "=/content/apache/fake", ResourceProvider.PROPERTY_MODIFIABLE + "=true",
+        ResourceProvider.PROPERTY_ROOT + "=/content/apache/fake",
         "adaptables=org.apache.sling.mvresource.impl.MvResource",
         "adapters=org.apache.sling.api.resource.ModifiableValueMap",
         ResourceProvider.PROPERTY_AUTHENTICATE + "=" + ResourceProvider.AUTHENTICATE_REQUIRED })
+@Designate(ocd = MvStoreResourceProvider.Config.class)
 public class MvStoreResourceProvider extends ResourceProvider<MvSession> implements AdapterFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(MvStoreResourceProvider.class);
 
     private static final String CHILDREN = "_children";
 
+    private static final String RESOURCES = "_resources";
+
     @ObjectClassDefinition(name = "Apache Sling Resource Provider", description = "Configure an instance of the file system "
             + "resource provider in terms of provider root and file system location")
     public @interface Config {
 
-        @AttributeDefinition(name = "DataStore File Name", description = "File system directory mapped to the virtual "
-                + "resource tree. This property must not be an empty string. If the path is "
-                + "relative it is resolved against sling.home or the current working directory. "
-                + "The path may be a file or folder. If the path does not address an existing "
-                + "file or folder, an empty folder is created.")
-        String provider_file();
+        @AttributeDefinition(name = "DataStore File Name", description = "File of the MVStore that holds the "
+                + "resources. If the path is relative it is resolved against the current working directory. "
+                + "If the file does not exist, it is created. An empty name keeps the resources in memory.")
+        String provider_file() default "dataStore";
 
         @AttributeDefinition(name = "Provider Root", description = "Location in the virtual resource tree where the "
-                + "file system resources are mapped in. This property must not be an empty string.")
+                + "file system resources are mapped in, replaces the root of the component. This property must not "
+                + "be an empty string.")
         String provider_root();
 
-        @AttributeDefinition(name = "Cache Size", description = "Cache size in MB")
+        @AttributeDefinition(name = "Cache Size", description = "Size of the page cache in MB")
         int provider_cache_size() default 1024;
 
+        @AttributeDefinition(name = "Compression", description = "Compression of the pages written to the file", options = {
+                @Option(label = "None", value = "none"), @Option(label = "LZF, fast", value = "lzf"),
+                @Option(label = "Deflate, small", value = "deflate") })
+        String provider_compression() default "none";
+
+        @AttributeDefinition(name = "Autocommit Buffer Size", description = "Size in KB of the unsaved changes after "
+                + "which they are written to the file")
+        int provider_autocommit_buffer_size() default 1024;
+
+        @AttributeDefinition(name = "Autocommit Delay", description = "Maximum delay in ms after which unsaved "
+                + "changes are written to the file, 0 disables the background writer")
+        int provider_autocommit_delay() default 1000;
+
+        @AttributeDefinition(name = "Page Split Size", description = "Size in bytes after which a page is split, "
+                + "0 keeps the default of the store")
+        int provider_page_split_size() default 0;
+
+        @AttributeDefinition(name = "Modifiable", description = "Whether resources can be created, deleted and "
+                + "modified. If not, the file is opened read only and the resource resolver does not write to the "
+                + "provider.")
+        boolean provider_modifiable() default true;
+
         // Internal Name hint for web console.
         String webconsole_configurationFactory_nameHint() default "{provider.fs.mode}: {"
                 + ResourceProvider.PROPERTY_ROOT + "}";
     }
 
+    private Config config;
+    private String root;
+
     MVStore store;
     private StreamStore binaryStore;
+    private MVMap<String, Object> resources;
+    private MVMap<String, Boolean> children;
+
+    @Activate
+    protected void activate(Config config) {
+        this.config = config;
+        this.root = config.provider_root();
+    }
 
     @Override
     public void start(ProviderContext ctx) {
         LOG.info("mvprovider has started");
         super.start(ctx);
-        store = MVStore.open("dataStore");
+        store = open(config);
         binaryStore = new StreamStore(store.openMap("_binaries"));
+        resources = store.openMap(RESOURCES);
+        children = store.openMap(CHILDREN);
+    }
+
+    private static MVStore open(Config config) {
+        MVStore.Builder builder = new MVStore.Builder().cacheSize(config.provider_cache_size())
+                .autoCommitBufferSize(config.provider_autocommit_buffer_size());
+        if ("lzf".equals(config.provider_compression())) {
+            builder.compress();
+        } else if ("deflate".equals(config.provider_compression())) {
+            builder.compressHigh();
+        }
+        if (config.provider_page_split_size() > 0) {
+            builder.pageSplitSize(config.provider_page_split_size());
+        }
+        File file = null;
+        if (!config.provider_file().isEmpty()) {
+            file = new File(config.provider_file()).getAbsoluteFile();
+            builder.fileName(file.getPath());
+            if (config.provider_modifiable() && file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+        }
+        if (!config.provider_modifiable()) {
+            builder.readOnly();
+        }
+        LOG.info("opening {}, cache {} MB, compression {}", file == null ? "in memory" : file,
+                config.provider_cache_size(), config.provider_compression());
+        MVStore store = builder.open();
+        if (!store.isReadOnly()) {
+            store.setAutoCommitDelay(config.provider_autocommit_delay());
+        }
+        return store;
+    }
+
+    private void checkWritable() throws PersistenceException {
+        if (store.isReadOnly()) {
+            throw new PersistenceException("the store " + config.provider_file() + " is read only");
+        }
     }
 
     @Override
@@ -100,31 +173,28 @@ public class MvStoreResourceProvider extends ResourceProvider<MvSession> impleme
     public Resource getResource(ResolveContext<MvSession> context, String resourcePath, ResourceContext resourceContext,
             Resource parentResource) {
         LOG.info("GET {} ", resourcePath);
-        MVMap<String, Object> properties = store.openMap(resourcePath);
-        if (resourcePath.equals("/content/apache/fake")) {
+        if (resourcePath.equals(root)) {
             final ResourceProvider rp = context.getParentResourceProvider();
             return rp.getResource(context.getParentResolveContext(), resourcePath, resourceContext, parentResource);
         }
-        if (properties.isEmpty()) {
+        if (!resources.containsKey(MvValueMap.prefix(resourcePath))) {
             return null;
         }
-        return new MvResource(context.getResourceResolver(), resourcePath, new MvValueMap(properties, binaryStore));
+        return new MvResource(context.getResourceResolver(), resourcePath,
+                new MvValueMap(resources, resourcePath, binaryStore));
     }
 
     @Override
     public Resource create(ResolveContext<MvSession> ctx, String path, Map<String, Object> properties)
             throws PersistenceException {
         LOG.info("CREATE  {} ", path);
-        MVMap<String, Object> oldProps = store.openMap(path);
-        if (oldProps.isEmpty()) {
-            String parent = parentPath(path);
-            MVMap<String, String[]> parentResource = store.openMap(CHILDREN);
-            String[] children = parentResource.getOrDefault(parent, new String[] {});
-            String[] newChildren = Arrays.copyOf(children, children.length + 1);
-            newChildren[children.length] = path;
-            parentResource.put(parent, newChildren);
+        checkWritable();
+        String marker = MvValueMap.prefix(path);
+        if (!resources.containsKey(marker)) {
+            children.put(childKey(path), Boolean.TRUE);
+            resources.put(marker, Boolean.TRUE);
         }
-        MvValueMap data = new MvValueMap(oldProps, binaryStore);
+        MvValueMap data = new MvValueMap(resources, path, binaryStore);
         data.putAll(properties);
         store.commit();
         return new MvResource(ctx.getResourceResolver(), path, data);
@@ -136,15 +206,22 @@ public class MvStoreResourceProvider extends ResourceProvider<MvSession> impleme
         return path.substring(index + 1, path.length());
     }
 
-    private String parentPath(String path) {
+    /**
+     * @return the key of the resource in the index of the children, the
+     *         children of a resource are the keys that start with
+     *         {@code MvValueMap.prefix(parentPath)}, ordered by name
+     */
+    private String childKey(String path) {
         int index = path.lastIndexOf('/');
-        return path.substring(0, index);
+        return MvValueMap.prefix(path.substring(0, index)) + path.substring(index + 1);
     }
 
     @Override
     public void commit(ResolveContext<MvSession> ctx) throws PersistenceException {
         LOG.info("COMMIT  {} ", ctx.getProviderState());
-        store.commit();
+        if (!store.isReadOnly()) {
+            store.commit();
+        }
     }
 
     @Override
@@ -153,53 +230,45 @@ public class MvStoreResourceProvider extends ResourceProvider<MvSession> impleme
         if (!(resource instanceof MvResource)) {
             throw new PersistenceException("can not delete resource of type" + resource.getClass());
         }
-        MVMap<String, String[]> parentResource = store.openMap(CHILDREN);
-        String parentPath = parentPath(resource.getPath());
-        String[] childNames = parentResource.get(parentPath);
-        String[] newChildren = new String[childNames.length - 1];
-        int newIndex = 0;
-        for (int index = 0; index < childNames.length; ++index) {
-            if (!childNames[index].equals(resource.getName())) {
-                newChildren[newIndex++] = childNames[index];
-            }
-        }
-        parentResource.put(parentPath, newChildren);
-        Deque<String> resourceToDelete = new LinkedList<>();
-        resourceToDelete.add(resource.getPath());
-        deleteDescendents(parentResource, resourceToDelete);
+        checkWritable();
+        String path = resource.getPath();
+        children.remove(childKey(path));
+        // the resource and its descendants are two ranges of keys in each map
+        removeRange(resources, MvValueMap.prefix(path));
+        removeRange(resources, path + "/");
+        removeRange(children, MvValueMap.prefix(path));
+        removeRange(children, path + "/");
     }
 
-    private void deleteDescendents(MVMap<String, String[]> parentMap, Deque<String> pathsToDelete) {
-        if (pathsToDelete.isEmpty()) {
-            return;
-        }
-        String currentPath = pathsToDelete.pop();
-        String[] children = parentMap.getOrDefault(currentPath, new String[] {});
-        store.removeMap(store.openMap(currentPath));
-        for (int i = 0; i < children.length; ++i) {
-            pathsToDelete.add(children[i]);
+    /**
+     * Removes the entries with keys that start with the prefix.
+     */
+    private static void removeRange(MVMap<String, ?> map, String prefix) {
+        // the iterator reads the version of the map it was opened on, so
+        // removing while iterating is safe
+        Iterator<String> keys = map.keyIterator(prefix);
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            map.remove(key);
         }
-        deleteDescendents(parentMap, pathsToDelete);
     }
 
     @Override
     public Iterator<Resource> listChildren(ResolveContext<MvSession> resolveContext, Resource resource) {
-        LOG.info("LIST CHILDREN");
-        MVMap<String, String[]> parentMap = store.openMap(CHILDREN);
-        List<Resource> response = new ArrayList<>();
-        String[] childNames = parentMap.getOrDefault(resource.getPath(), new String[] {});
-        for (int i = 0; i < childNames.length; ++i) {
-            String childPath = childNames[i];
-            LOG.info("child found {}", childPath);
-            response.add(new MvResource(resolveContext.getResourceResolver(), childPath,
-                    new MvValueMap(store.openMap(childPath), binaryStore)));
-        }
-        return response.iterator();
+        return new MvChildIterator(resolveContext.getResourceResolver(), children, resources, binaryStore,
+                resource.getPath());
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public <AdapterType> AdapterType getAdapter(Object adaptable, Class<AdapterType> type) {
+        // a read only store would fail on the first write to the map
+        if (store.isReadOnly()) {
+            return null;
+        }
         return (AdapterType) ((MvResource) adaptable).getValueMap();
     }
 
@@ -20,7 +20,12 @@ package org.apache.sling.mvresource.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -29,39 +34,84 @@ import org.apache.sling.api.resource.ValueMap;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.StreamStore;
 
+/**
+ * The properties of one resource. The properties of all resources are kept in
+ * one map under the key {@code path + '\0' + name}, the key {@code path + '\0'}
+ * marks that the resource exists. As '\0' sorts before every other character
+ * the properties of a resource are one range of keys, followed by the ranges
+ * of its descendants.
+ */
 public class MvValueMap implements ValueMap, ModifiableValueMap {
 
+    static final char SEPARATOR = '\0';
+
     private MVMap<String, Object> map;
+    private String prefix;
     private StreamStore store;
 
-    public MvValueMap(MVMap<String, Object> map, StreamStore binaryStore) {
+    public MvValueMap(MVMap<String, Object> map, String path, StreamStore binaryStore) {
         this.map = map;
+        this.prefix = prefix(path);
         this.store = binaryStore;
     }
 
+    /**
+     * @return the key that marks the resource as existing, the keys of its
+     *         properties start with it
+     */
+    static String prefix(String path) {
+        return path + SEPARATOR;
+    }
+
+    private String key(Object name) {
+        return prefix + name;
+    }
+
+    /**
+     * @return the keys of the properties, in the order of the map
+     */
+    private List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        Iterator<String> it = map.keyIterator(prefix);
+        while (it.hasNext()) {
+            String key = it.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (key.length() > prefix.length()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
     @Override
     public int size() {
-        return map.size();
+        return keys().size();
     }
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        String next = map.higherKey(prefix);
+        return next == null || !next.startsWith(prefix);
     }
 
     @Override
     public boolean containsKey(Object key) {
-        return map.containsKey(key);
+        return map.containsKey(key(key));
     }
 
     @Override
     public boolean containsValue(Object value) {
-        return map.containsValue(value);
+        return values().contains(value);
     }
 
     @Override
     public Object get(Object key) {
-        Object value = map.get(key);
+        return binary(map.get(key(key)));
+    }
+
+    private Object binary(Object value) {
         if (value instanceof String) {
             String stringValue = value.toString();
             if (stringValue.startsWith("{b}")) {
@@ -80,37 +130,53 @@ public class MvValueMap implements ValueMap, ModifiableValueMap {
                 e.printStackTrace();
             }
         }
-        return map.put(key, value);
+        return map.put(key(key), value);
     }
 
     @Override
     public Object remove(Object key) {
-        return map.remove(key);
+        return map.remove(key(key));
     }
 
     @Override
     public void putAll(Map<? extends String, ? extends Object> m) {
-        map.putAll(map);
+        for (Entry<? extends String, ? extends Object> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
     @Override
     public void clear() {
-        map.clear();
+        for (String key : keys()) {
+            map.remove(key);
+        }
     }
 
     @Override
     public Set<String> keySet() {
-        return map.keySet();
+        Set<String> names = new LinkedHashSet<>();
+        for (String key : keys()) {
+            names.add(key.substring(prefix.length()));
+        }
+        return names;
     }
 
     @Override
     public Collection<Object> values() {
-        return map.values();
+        List<Object> values = new ArrayList<>();
+        for (String key : keys()) {
+            values.add(binary(map.get(key)));
+        }
+        return values;
     }
 
     @Override
     public Set<Entry<String, Object>> entrySet() {
-        return map.entrySet();
+        Set<Entry<String, Object>> entries = new LinkedHashSet<>();
+        for (String key : keys()) {
+            entries.add(new AbstractMap.SimpleEntry<>(key.substring(prefix.length()), binary(map.get(key))));
+        }
+        return entries;
     }
 
     @SuppressWarnings("unchecked")
@@ -129,7 +195,8 @@ public class MvValueMap implements ValueMap, ModifiableValueMap {
     @SuppressWarnings("unchecked")
     @Override
     public <T> T get(String name, T defaultValue) {
-        return (T) map.getOrDefault(name, defaultValue);
+        Object value = get(name);
+        return value == null ? defaultValue : (T) value;
     }
     
 
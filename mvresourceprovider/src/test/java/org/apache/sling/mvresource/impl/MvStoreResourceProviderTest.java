@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.mvresource.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.spi.resource.provider.ResolveContext;
+import org.apache.sling.spi.resource.provider.ResourceContext;
+import org.apache.sling.spi.resource.provider.ResourceProvider;
+import org.h2.mvstore.MVMap;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MvStoreResourceProviderTest {
+
+    private static final String ROOT = "/content/mv";
+
+    private static final ResolveContext<MvSession> CONTEXT = new ResolveContext<MvSession>() {
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return null;
+        }
+
+        @Override
+        public MvSession getProviderState() {
+            return null;
+        }
+
+        @Override
+        public ResolveContext<?> getParentResolveContext() {
+            return null;
+        }
+
+        @Override
+        public ResourceProvider<?> getParentResourceProvider() {
+            return null;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MvStoreResourceProvider provider;
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.stop();
+        }
+    }
+
+    private static MvStoreResourceProvider.Config config(String file, String compression, boolean modifiable) {
+        return new MvStoreResourceProvider.Config() {
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return MvStoreResourceProvider.Config.class;
+            }
+
+            @Override
+            public String provider_file() {
+                return file;
+            }
+
+            @Override
+            public String provider_root() {
+                return ROOT;
+            }
+
+            @Override
+            public int provider_cache_size() {
+                return 16;
+            }
+
+            @Override
+            public String provider_compression() {
+                return compression;
+            }
+
+            @Override
+            public int provider_autocommit_buffer_size() {
+                return 1024;
+            }
+
+            @Override
+            public int provider_autocommit_delay() {
+                return 0;
+            }
+
+            @Override
+            public int provider_page_split_size() {
+                return 1024;
+            }
+
+            @Override
+            public boolean provider_modifiable() {
+                return modifiable;
+            }
+
+            @Override
+            public String webconsole_configurationFactory_nameHint() {
+                return "";
+            }
+        };
+    }
+
+    private static MvStoreResourceProvider start(MvStoreResourceProvider.Config config) {
+        MvStoreResourceProvider provider = new MvStoreResourceProvider();
+        provider.activate(config);
+        provider.start(null);
+        return provider;
+    }
+
+    private void startInMemory() {
+        provider = start(config("", "none", true));
+    }
+
+    private Resource get(String path) {
+        return provider.getResource(CONTEXT, path, ResourceContext.EMPTY_CONTEXT, null);
+    }
+
+    private List<String> keys(String mapName) {
+        MVMap<String, Object> map = provider.store.openMap(mapName);
+        return new ArrayList<>(map.keySet());
+    }
+
+    @Test
+    public void missCreatesNothing() throws Exception {
+        startInMemory();
+        Set<String> maps = provider.store.getMapNames();
+        assertNull(get(ROOT + "/missing"));
+        assertNull(get(ROOT + "/missing/child"));
+        assertEquals(maps, provider.store.getMapNames());
+        assertEquals(Collections.emptyList(), keys("_resources"));
+        assertEquals(Collections.emptyList(), keys("_children"));
+    }
+
+    @Test
+    public void propertiesAreKeptUnderThePathOfTheResource() throws Exception {
+        startInMemory();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("title", "A");
+        properties.put("count", 2L);
+        properties.put("flag", true);
+        provider.create(CONTEXT, ROOT + "/a", properties);
+        provider.create(CONTEXT, ROOT + "/ab", Collections.singletonMap("title", "AB"));
+        provider.create(CONTEXT, ROOT + "/a/b", Collections.emptyMap());
+
+        String a = ROOT + "/a";
+        String ab = ROOT + "/ab";
+        assertEquals(Arrays.asList(a + "\0", a + "\0count", a + "\0flag", a + "\0title", a + "/b\0",
+                ab + "\0", ab + "\0title"), keys("_resources"));
+        assertEquals(Arrays.asList(ROOT + "\0a", ROOT + "\0ab", a + "\0b"), keys("_children"));
+
+        ValueMap values = get(a).getValueMap();
+        assertEquals(3, values.size());
+        assertEquals("A", values.get("title"));
+        assertEquals(Long.valueOf(2), values.get("count", Long.class));
+        assertEquals(Boolean.TRUE, values.get("flag", Boolean.class));
+        assertTrue(get(a + "/b").getValueMap().isEmpty());
+        assertEquals(Collections.singleton("title"), get(ab).getValueMap().keySet());
+    }
+
+    @Test
+    public void deleteRemovesDescendantsAndTheChildEntry() throws Exception {
+        startInMemory();
+        String c = ROOT + "/c";
+        for (String path : new String[] { c, c + "/a", c + "/a/b", c + "/a/b/c", c + "/ab", c + "/a-b" }) {
+            provider.create(CONTEXT, path, Collections.singletonMap("title", path));
+        }
+        provider.delete(CONTEXT, get(c + "/a"));
+        provider.commit(CONTEXT);
+
+        assertNull(get(c + "/a"));
+        assertNull(get(c + "/a/b"));
+        assertNull(get(c + "/a/b/c"));
+        assertEquals(c + "/ab", get(c + "/ab").getValueMap().get("title"));
+        assertEquals(c + "/a-b", get(c + "/a-b").getValueMap().get("title"));
+        assertEquals(Arrays.asList(ROOT + "\0c", c + "\0a-b", c + "\0ab"), keys("_children"));
+        assertEquals(Arrays.asList(c + "\0", c + "\0title", c + "/a-b\0", c + "/a-b\0title", c + "/ab\0",
+                c + "/ab\0title"), keys("_resources"));
+    }
+
+    @Test
+    public void childrenAreListedInOrderOfTheirNames() throws Exception {
+        startInMemory();
+        String c = ROOT + "/c";
+        for (String path : new String[] { c, c + "/c", c + "/a", c + "/b", c + "/b/x", c + "/a-b", ROOT + "/cd",
+                ROOT + "/cd/y" }) {
+            provider.create(CONTEXT, path, Collections.singletonMap("title", path));
+        }
+        List<String> paths = new ArrayList<>();
+        Iterator<Resource> it = provider.listChildren(CONTEXT, get(c));
+        while (it.hasNext()) {
+            Resource child = it.next();
+            assertEquals(child.getPath(), child.getValueMap().get("title"));
+            paths.add(child.getPath());
+        }
+        assertEquals(Arrays.asList(c + "/a", c + "/a-b", c + "/b", c + "/c"), paths);
+        try {
+            it.next();
+            fail("next after the last child");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+        assertFalse(provider.listChildren(CONTEXT, get(c + "/a")).hasNext());
+    }
+
+    @Test
+    public void modifiedPropertiesAreStored() throws Exception {
+        startInMemory();
+        Resource resource = provider.create(CONTEXT, ROOT + "/a", Collections.singletonMap("title", "A"));
+        ModifiableValueMap values = provider.getAdapter(resource, ModifiableValueMap.class);
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("title", "B");
+        changes.put("text", "C");
+        values.putAll(changes);
+        values.remove("missing");
+        provider.commit(CONTEXT);
+        ValueMap stored = get(ROOT + "/a").getValueMap();
+        assertEquals(2, stored.size());
+        assertEquals("B", stored.get("title"));
+        assertEquals("C", stored.get("text"));
+    }
+
+    @Test
+    public void emptyFileNameKeepsTheStoreInMemory() throws Exception {
+        startInMemory();
+        provider.create(CONTEXT, ROOT + "/a", Collections.singletonMap("title", "A"));
+        assertNull(provider.store.getFileStore());
+        assertEquals("A", get(ROOT + "/a").getValueMap().get("title"));
+    }
+
+    @Test
+    public void storeIsReopenedWithTheConfiguredOptions() throws Exception {
+        String file = new File(folder.getRoot(), "store/data.mv").getPath();
+        for (String compression : new String[] { "none", "lzf", "deflate" }) {
+            provider = start(config(file, compression, true));
+            provider.create(CONTEXT, ROOT + "/" + compression, Collections.singletonMap("title", compression));
+            provider.stop();
+        }
+        provider = start(config(file, "none", true));
+        for (String compression : new String[] { "none", "lzf", "deflate" }) {
+            assertEquals(compression, get(ROOT + "/" + compression).getValueMap().get("title"));
+        }
+    }
+
+    @Test
+    public void readOnlyStoreRefusesWrites() throws Exception {
+        String file = folder.newFile("data.mv").getPath();
+        provider = start(config(file, "none", true));
+        provider.create(CONTEXT, ROOT + "/a", Collections.singletonMap("title", "A"));
+        provider.stop();
+
+        provider = start(config(file, "none", false));
+        assertTrue(provider.store.isReadOnly());
+        Resource resource = get(ROOT + "/a");
+        assertEquals("A", resource.getValueMap().get("title"));
+        assertNull(provider.getAdapter(resource, ModifiableValueMap.class));
+        try {
+            provider.create(CONTEXT, ROOT + "/b", Collections.emptyMap());
+            fail("created a resource in a read only store");
+        } catch (PersistenceException e) {
+            // expected
+        }
+        try {
+            provider.delete(CONTEXT, resource);
+            fail("deleted a resource in a read only store");
+        } catch (PersistenceException e) {
+            // expected
+        }
+        provider.commit(CONTEXT);
+        assertEquals("A", get(ROOT + "/a").getValueMap().get("title"));
+        assertNull(get(ROOT + "/b"));
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates the documents the benchmarks parse. The documents are built from
+ * a fixed seed so every run measures the same input.
+ */
+public final class Corpus {
+
+    /**
+     * Approximate size of a document.
+     */
+    public enum Size {
+        SMALL(4 * 1024), MEDIUM(256 * 1024), HUGE(8 * 1024 * 1024);
+
+        private final int bytes;
+
+        Size(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The kind of markup a document consists of.
+     */
+    public enum Kind {
+        /** article like content, mostly text */
+        TEXT,
+        /** inline scripts and styles that contain markup characters */
+        SCRIPT,
+        /** deeply attributed elements as produced by component frameworks */
+        ATTRIBUTES,
+        /** unclosed tags, stray angle brackets and broken attributes */
+        MALFORMED
+    }
+
+    private Corpus() {
+    }
+
+    public static String document(Kind kind, Size size) {
+        StringBuilder html = new StringBuilder(size.bytes + 1024);
+        html.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"UTF-8\">\n<title>")
+                .append(kind).append(' ').append(size).append("</title>\n</head>\n<body>\n");
+        int block = 0;
+        while (html.length() < size.bytes) {
+            switch (kind) {
+            case SCRIPT:
+                script(html, block);
+                break;
+            case ATTRIBUTES:
+                attributes(html, block);
+                break;
+            case MALFORMED:
+                malformed(html, block);
+                break;
+            default:
+                text(html, block);
+                break;
+            }
+            ++block;
+        }
+        html.append("</body>\n</html>\n");
+        return html.toString();
+    }
+
+    public static byte[] bytes(Kind kind, Size size) {
+        return document(kind, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void text(StringBuilder html, int block) {
+        html.append("<div class=\"section\">\n<h2 id=\"s").append(block).append("\">Section ").append(block)
+                .append("</h2>\n<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor ")
+                .append("<a href=\"/content/page").append(block).append(".html\">incididunt</a> ut labore et ")
+                .append("dolore magna aliqua. <em>Ut enim</em> ad minim veniam, quis nostrud exercitation.</p>\n")
+                .append("<!-- section ").append(block).append(" -->\n<ul>\n<li>one</li>\n<li>two</li>\n</ul>\n</div>\n");
+    }
+
+    private static void script(StringBuilder html, int block) {
+        html.append("<script type=\"text/javascript\">\nvar items").append(block).append(" = [];\n")
+                .append("for (var i = 0; i < 10 && items").append(block).append(".length < 5; i++) {\n")
+                .append("  document.write('<div class=\"item\">' + i + '</div>');\n}\n</script>\n")
+                .append("<style>\n.item > span { color: #333; }\n.item:hover { color: #000; }\n</style>\n")
+                .append("<p>Text between scripts ").append(block).append("</p>\n");
+    }
+
+    private static void attributes(StringBuilder html, int block) {
+        html.append("<div id=\"c").append(block)
+                .append("\" class=\"cmp cmp-teaser cmp-teaser--featured\" data-cmp-is=\"teaser\" data-cmp-data-layer='{\"id\":\"")
+                .append(block).append("\"}' data-sly-resource=\"teaser\" aria-label=\"Teaser\" role=\"region\">\n")
+                .append("<img src=\"/content/dam/image").append(block)
+                .append(".jpg\" alt=\"Image\" width=\"640\" height=\"480\" loading=\"lazy\" decoding=async/>\n")
+                .append("<input type=\"checkbox\" name=\"option").append(block)
+                .append("\" value=\"on\" checked disabled data-a=\"1\" data-b=\"2\" data-c=\"3\">\n")
+                .append("<a href=\"/content/page.html?x=1&amp;y=2\" target=\"_blank\" rel=\"noopener noreferrer\" title='Link'>Link</a>\n")
+                .append("</div>\n");
+    }
+
+    private static void malformed(StringBuilder html, int block) {
+        html.append("<div class=\"broken\"><p>unclosed paragraph ").append(block)
+                .append("\n<span class=\"a\" class=\"b\">duplicate attributes</span>\n")
+                .append("<b>bold <i>overlapping</b> tags</i>\n")
+                .append("a < b and c > d <3 <\n")
+                .append("<a href=\"/x>unterminated attribute</a>\n\">\n")
+                .append("<!-- unterminated -- comment -->\n")
+                .append("<img src=/unquoted.png alt=>\n")
+                .append("</div></div>\n");
+    }
+
+}
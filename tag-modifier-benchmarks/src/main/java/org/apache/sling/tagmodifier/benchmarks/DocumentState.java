@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A corpus document held in memory, the document is generated once per trial.
+ */
+@State(Scope.Benchmark)
+public class DocumentState {
+
+    @Param({ "TEXT", "SCRIPT", "ATTRIBUTES", "MALFORMED" })
+    public Corpus.Kind kind;
+
+    @Param({ "SMALL", "MEDIUM", "HUGE" })
+    public Corpus.Size size;
+
+    public String html;
+
+    public byte[] bytes;
+
+    @Setup
+    public void setup() {
+        html = Corpus.document(kind, size);
+        bytes = Corpus.bytes(kind, size);
+    }
+
+    public InputStream stream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.tagmodifier.ElementType;
+import org.apache.sling.tagmodifier.Tag;
+import org.apache.sling.tagmodifier.TagIterator;
+import org.apache.sling.tagmodifier.TagMapping;
+import org.apache.sling.tagmodifier.TagRules;
+import org.apache.sling.tagmodifier.consumer.HtmlSAXSupport;
+import org.apache.sling.tagmodifier.impl.components.TagHtmlParser;
+import org.apache.sling.tagmodifier.util.CompactDocument;
+import org.apache.sling.tagmodifier.util.DOMBuilder;
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.apache.sling.tagmodifier.util.HtmlWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Throughput of the public entry points of the tag modifier over the
+ * {@link Corpus}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final TagHtmlParser PARSER = new TagHtmlParser();
+
+    private static final TagRules LINK_RULES = TagRules.builder()
+            .on(ElementType.START_TAG, "a", "link", "area").having("href").rewrite("href", ParseBenchmark::absolute)
+            .on(ElementType.START_TAG, "img", "script").having("src").rewrite("src", ParseBenchmark::absolute)
+            .build();
+
+    /**
+     * Tokenizing only, every element is handed to the black hole.
+     */
+    @Benchmark
+    public void tagStream(DocumentState document, Blackhole blackhole) {
+        Tag.stream(document.stream(), "UTF-8").forEach(blackhole::consume);
+    }
+
+    /**
+     * Tokenizing from characters that are already decoded.
+     */
+    @Benchmark
+    public void tagStreamCharSequence(DocumentState document, Blackhole blackhole) {
+        Tag.stream(document.html).forEach(blackhole::consume);
+    }
+
+    /**
+     * Tokenizing chunks of the document in parallel.
+     */
+    @Benchmark
+    public void tagParallelStream(DocumentState document, Blackhole blackhole) {
+        Tag.parallelStream(document.html).forEachOrdered(blackhole::consume);
+    }
+
+    /**
+     * Round trip of every element through {@link HtmlStreams#TO_HTML}.
+     */
+    @Benchmark
+    public int toHtml(DocumentState document) {
+        StringBuilder html = new StringBuilder(document.bytes.length);
+        Tag.stream(document.stream(), "UTF-8").map(HtmlStreams.TO_HTML).forEach(html::append);
+        return html.length();
+    }
+
+    /**
+     * Serialization into a writer through {@link HtmlWriter}.
+     */
+    @Benchmark
+    public int htmlWriter(DocumentState document) {
+        StringWriter out = new StringWriter(document.bytes.length);
+        HtmlWriter html = new HtmlWriter(out);
+        Tag.stream(document.stream(), "UTF-8").forEach(html);
+        html.flush();
+        return out.getBuffer().length();
+    }
+
+    /**
+     * Serialization through {@link HtmlWriter} in lazy mode, the attributes of
+     * start tags are written from their source without being parsed.
+     */
+    @Benchmark
+    public int htmlWriterLazy(DocumentState document) {
+        StringWriter out = new StringWriter(document.bytes.length);
+        HtmlWriter html = new HtmlWriter(out);
+        Tag.stream(TagIterator.lazy(document.stream(), "UTF-8")).forEach(html);
+        html.flush();
+        return out.getBuffer().length();
+    }
+
+    /**
+     * Link rewriting with two {@link TagMapping} stages.
+     */
+    @Benchmark
+    public void rewriteTagMapping(DocumentState document, Blackhole blackhole) {
+        Tag.stream(document.html)
+                .flatMap(TagMapping.map((element, mapping) -> {
+                    if (element.containsAttribute("href")) {
+                        element.setAttribute("href", absolute(element.getAttributeValue("href")));
+                    }
+                    mapping.next(element);
+                }))
+                .flatMap(TagMapping.map((element, mapping) -> {
+                    if (element.containsAttribute("src")) {
+                        element.setAttribute("src", absolute(element.getAttributeValue("src")));
+                    }
+                    mapping.next(element);
+                }))
+                .forEach(blackhole::consume);
+    }
+
+    /**
+     * The same link rewriting with compiled {@link TagRules}.
+     */
+    @Benchmark
+    public void rewriteTagRules(DocumentState document, Blackhole blackhole) {
+        Tag.stream(document.html).forEach(LINK_RULES.into(blackhole::consume));
+    }
+
+    private static String absolute(String value) {
+        return value != null && value.startsWith("/") ? "http://www.apache.org" + value : value;
+    }
+
+    /**
+     * The SAX bridge without any work done by the content handler.
+     */
+    @Benchmark
+    public void sax(DocumentState document) throws SAXException {
+        PARSER.parse(document.stream(), "UTF-8", new DefaultHandler());
+    }
+
+    /**
+     * The SAX bridge feeding a {@link DOMBuilder}. Names that are not valid XML
+     * names abort the build, for malformed documents this measures the part
+     * that was built until then.
+     */
+    @Benchmark
+    public Document dom(DocumentState document) throws IOException {
+        DOMBuilder builder = new DOMBuilder();
+        try {
+            Tag.stream(document.stream(), "UTF-8").forEach(new HtmlSAXSupport(builder, builder));
+        } catch (DOMException e) {
+            return null;
+        }
+        return builder.getDocument();
+    }
+
+    /**
+     * Builds the compact tree, the counterpart to {@link #dom}.
+     */
+    @Benchmark
+    public CompactDocument compactDocument(DocumentState document) {
+        return CompactDocument.build(Tag.stream(document.stream(), "UTF-8"));
+    }
+
+}
@@ -13,15 +13,29 @@
  */
 package org.apache.sling.tagmodifier;
 
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
+import java.io.IOException;
 
 import org.osgi.annotation.versioning.ProviderType;
 
 @ProviderType
 public class AttrValue implements CharSequence {
 
-    Predicate<String> nonQuotable = Pattern.compile("^[a-zA-Z][-_a-zA-Z0-9\\u00A0-\\u10FFFF]*$").asPredicate();
+    // character classes of ASCII characters in values that need no quotes
+    private static final byte FIRST = 1;
+    private static final byte FOLLOWING = 2;
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; ++c) {
+            CLASSES[c] = FIRST | FOLLOWING;
+            CLASSES[Character.toUpperCase(c)] = FIRST | FOLLOWING;
+        }
+        for (char c = '0'; c <= '9'; ++c) {
+            CLASSES[c] = FOLLOWING;
+        }
+        CLASSES['-'] = FOLLOWING;
+        CLASSES['_'] = FOLLOWING;
+    }
 
     private String value;
 
@@ -47,20 +61,100 @@ public class AttrValue implements CharSequence {
         return value;
     }
     
+    /**
+     * @param paren the quote character
+     * @return the value enclosed in the quote character, quote characters in the
+     *         value are escaped as character references
+     */
     public String getQuoted(char paren) {
         if (isEmpty()) {
             return null;
         }
-        return paren + value + paren;
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        try {
+            appendQuoted(sb, value, paren);
+        } catch (IOException e) {
+            // not thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
     }
 
     public boolean shouldBeQuoted() {
         if (isEmpty()) {
             return false;
         }
-        return nonQuotable.negate().test(value);
+        return shouldBeQuoted(value);
     }
-    
+
+    /**
+     * Writes the value as it would be returned by {@link #quoteIfNeeded()}.
+     * 
+     * @param out target
+     * @throws IOException if the target fails
+     */
+    public void appendTo(Appendable out) throws IOException {
+        if (isEmpty()) {
+            return;
+        }
+        if (shouldBeQuoted(value)) {
+            appendQuoted(out, value, '"');
+        } else {
+            out.append(value);
+        }
+    }
+
+    /**
+     * Tells whether a value has to be quoted, a value only needs no quotes if it
+     * starts with an ASCII letter followed by letters, digits, '-', '_' or
+     * characters from U+00A0 to U+10FF.
+     * 
+     * @param value an attribute value
+     * @return true if the value has to be quoted
+     */
+    public static boolean shouldBeQuoted(CharSequence value) {
+        int length = value.length();
+        if (length == 0) {
+            return true;
+        }
+        char first = value.charAt(0);
+        if (first >= 128 || (CLASSES[first] & FIRST) == 0) {
+            return true;
+        }
+        for (int i = 1; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c < 128 ? (CLASSES[c] & FOLLOWING) == 0 : c < '\u00A0' || c > '\u10FF') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the value enclosed in the quote character, quote characters in the
+     * value are written as character references.
+     * 
+     * @param out   target
+     * @param value an attribute value
+     * @param paren the quote character, either '"' or '\''
+     * @throws IOException if the target fails
+     */
+    public static void appendQuoted(Appendable out, CharSequence value, char paren) throws IOException {
+        String reference = paren == '"' ? "&quot;" : "&#39;";
+        out.append(paren);
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; ++i) {
+            if (value.charAt(i) == paren) {
+                out.append(value, start, i);
+                out.append(reference);
+                start = i + 1;
+            }
+        }
+        out.append(value, start, length);
+        out.append(paren);
+    }
+
     public boolean isEmpty() {
         return value == null;
     }
@@ -0,0 +1,60 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Element returned by a {@link TagIterator} in cursor mode.
+ *
+ * The iterator reuses one instance per element type, so an element and the
+ * character sequences it hands out are only valid until the iterator is
+ * advanced. Use {@link #copy()} to keep an element.
+ */
+@ProviderType
+public interface CursorElement extends Element {
+
+    /**
+     * The value of the element without creating a String
+     *
+     * @return view of the tag name, text or comment
+     */
+    CharSequence getValueSequence();
+
+    /**
+     * @return the number of attributes as they were parsed
+     */
+    int getAttributeCount();
+
+    /**
+     * @param index of the attribute in source order
+     * @return view of the attribute name
+     */
+    CharSequence getAttributeName(int index);
+
+    /**
+     * @param index of the attribute in source order
+     * @return view of the attribute value or null if the attribute has no value
+     */
+    CharSequence getAttributeValue(int index);
+
+    /**
+     * Creates a detached element that stays valid after the iterator has been
+     * advanced.
+     *
+     * @return copy of this element
+     */
+    Element copy();
+
+}
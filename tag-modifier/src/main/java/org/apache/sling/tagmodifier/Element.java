@@ -84,4 +84,14 @@ public interface Element {
         }
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Whether the element has been changed since it was parsed. Elements that
+     * are unchanged may be written out as the source they were parsed from.
+     * 
+     * @return true if the element has been changed or can not tell
+     */
+    default boolean isModified() {
+        return true;
+    }
 }
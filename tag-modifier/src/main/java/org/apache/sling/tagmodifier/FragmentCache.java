@@ -0,0 +1,269 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.apache.sling.tagmodifier.impl.tag.AttributeMap;
+import org.apache.sling.tagmodifier.impl.tag.Comment;
+import org.apache.sling.tagmodifier.impl.tag.EndTag;
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
+import org.apache.sling.tagmodifier.impl.tag.TextData;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Parses fragments that are included in many pages only once.
+ *
+ * A fragment is parsed in lazy mode the first time it is seen and its elements
+ * are kept as a compact sequence of Strings. When the same fragment is
+ * streamed again the elements are created from that sequence instead of
+ * tokenizing the characters again. Every stream gets new elements, so they can
+ * be changed without affecting the cache. Start tags are lazy, unchanged tags
+ * are written out as they were read.
+ *
+ * <pre>
+ * FragmentCache cache = new FragmentCache(4 * 1024 * 1024);
+ * cache.stream(footer).map(...).forEach(writer);
+ * cache.stream(resource.getPath(), etag, () -&gt; read(resource)).forEach(writer);
+ * </pre>
+ *
+ * The cache is bounded by the number of characters of the cached fragments,
+ * the least recently used fragments are evicted first. A cache is thread safe
+ * and meant to be shared.
+ */
+@ProviderType
+public class FragmentCache {
+
+    private final long maxChars;
+    private final LinkedHashMap<Object, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true);
+    private long chars;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxChars the number of characters of all cached fragments after
+     *                 which the least recently used ones are evicted
+     */
+    public FragmentCache(long maxChars) {
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException("maxChars <= 0");
+        }
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Streams the elements of a fragment, the fragment is identified by its
+     * content.
+     *
+     * @param fragment the fragment
+     * @return stream of new elements
+     */
+    public Stream<Element> stream(CharSequence fragment) {
+        String content = fragment.toString();
+        Fragment cached = get(content, null);
+        if (cached == null) {
+            cached = parse(content, null);
+            put(content, cached);
+        }
+        return cached.stream();
+    }
+
+    /**
+     * Streams the elements of a fragment identified by a key, for example the
+     * path of a resource. The content is only read if the fragment is not
+     * cached for the key or was cached with another ETag.
+     *
+     * @param key     identifies the fragment
+     * @param etag    version of the fragment, may be null
+     * @param content supplies the fragment if it has to be parsed
+     * @return stream of new elements
+     */
+    public Stream<Element> stream(String key, String etag, Supplier<? extends CharSequence> content) {
+        Key cacheKey = new Key(key);
+        Fragment cached = get(cacheKey, etag);
+        if (cached == null) {
+            cached = parse(content.get(), etag);
+            put(cacheKey, cached);
+        }
+        return cached.stream();
+    }
+
+    /**
+     * Removes the fragment cached for the key.
+     *
+     * @param key identifies the fragment
+     */
+    public synchronized void invalidate(String key) {
+        Fragment removed = fragments.remove(new Key(key));
+        if (removed != null) {
+            chars -= removed.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        fragments.clear();
+        chars = 0;
+    }
+
+    /**
+     * @return the number of cached fragments
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private synchronized Fragment get(Object key, String etag) {
+        Fragment fragment = fragments.get(key);
+        if (fragment != null && Objects.equals(fragment.etag, etag)) {
+            hits++;
+            return fragment;
+        }
+        misses++;
+        return null;
+    }
+
+    private synchronized void put(Object key, Fragment fragment) {
+        if (fragment.weight > maxChars) {
+            return;
+        }
+        Fragment previous = fragments.put(key, fragment);
+        if (previous != null) {
+            chars -= previous.weight;
+        }
+        chars += fragment.weight;
+        Iterator<Fragment> eldest = fragments.values().iterator();
+        while (chars > maxChars && eldest.hasNext()) {
+            chars -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    private static Fragment parse(CharSequence content, String etag) {
+        List<Element> elements = new ArrayList<>();
+        TagIterator.lazy(content).forEachRemaining(elements::add);
+        return new Fragment(elements, etag, content.length());
+    }
+
+    /**
+     * Caller supplied key, kept apart from the fragments keyed by content.
+     */
+    private static final class Key {
+
+        private final String key;
+
+        Key(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).key.equals(key);
+        }
+    }
+
+    /**
+     * The elements of a fragment as Strings, the values of start tags are the
+     * tag name and the source of the attributes.
+     */
+    private static final class Fragment {
+
+        private static final ElementType[] TYPES = ElementType.values();
+        // flag of a start tag that ended with />
+        private static final int SELF_CLOSING = 0x10;
+
+        private final byte[] types;
+        private final String[] values;
+        private final String[] sources;
+        // attributes of declarations, which have no attribute source
+        private final String[][] declared;
+        private final String etag;
+        private final long weight;
+
+        Fragment(List<Element> elements, String etag, long weight) {
+            int size = elements.size();
+            this.types = new byte[size];
+            this.values = new String[size];
+            this.sources = new String[size];
+            this.declared = new String[size][];
+            this.etag = etag;
+            this.weight = weight;
+            for (int i = 0; i < size; ++i) {
+                Element element = elements.get(i);
+                int type = element.getType().ordinal();
+                values[i] = element.getValue();
+                if (element instanceof StartTag) {
+                    StartTag tag = (StartTag) element;
+                    sources[i] = tag.getAttributeSource();
+                    if (sources[i] == null) {
+                        declared[i] = tag.getAttributes().keySet().toArray(new String[0]);
+                    } else if (tag.getSelfClosing()) {
+                        type |= SELF_CLOSING;
+                    }
+                }
+                types[i] = (byte) type;
+            }
+        }
+
+        Stream<Element> stream() {
+            return IntStream.range(0, types.length).mapToObj(this::element);
+        }
+
+        private Element element(int index) {
+            int type = types[index];
+            switch (TYPES[type & 0x0f]) {
+            case START_TAG:
+                if (declared[index] != null) {
+                    return declaration(values[index], declared[index]);
+                }
+                return StartTag.lazy(values[index], sources[index], (type & SELF_CLOSING) != 0);
+            case END_TAG:
+                return new EndTag(values[index]);
+            case COMMENT:
+                return new Comment(values[index]);
+            default:
+                return new TextData(values[index]);
+            }
+        }
+
+        private static Element declaration(String name, String[] attributes) {
+            Map<String, AttrValue> map = new AttributeMap(Math.max(attributes.length, 1));
+            for (String attribute : attributes) {
+                map.put(attribute, new AttrValue());
+            }
+            return new StartTag(name, map);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Statistics of a parsed document.
+ *
+ * The parse time is the time spent in the parser, the time the consumers of
+ * the elements take between two elements is not included.
+ */
+@ProviderType
+public class ParseStatistics {
+
+    private final long[] elements = new long[ElementType.values().length];
+    private long bytes = -1;
+    private long nanos;
+    private int recoveries;
+    private int bufferExpansions;
+    private boolean complete;
+
+    void element(ElementType type, long elapsed) {
+        elements[type.ordinal()]++;
+        nanos += elapsed;
+    }
+
+    void finish(long bytes, int recoveries, int bufferExpansions, boolean complete) {
+        this.bytes = bytes;
+        this.recoveries = recoveries;
+        this.bufferExpansions = bufferExpansions;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the number of bytes read, -1 if the document was not read from
+     *         an InputStream
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param type of element
+     * @return the number of elements of the type
+     */
+    public long getElementCount(ElementType type) {
+        return elements[type.ordinal()];
+    }
+
+    /**
+     * @return the number of elements, without the end of the document
+     */
+    public long getElementCount() {
+        long count = 0;
+        for (ElementType type : ElementType.values()) {
+            if (type != ElementType.EOF) {
+                count += elements[type.ordinal()];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param unit of the result
+     * @return the time spent parsing
+     */
+    public long getParseTime(TimeUnit unit) {
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of tags that could not be parsed and were returned as
+     *         text
+     */
+    public int getRecoveries() {
+        return recoveries;
+    }
+
+    /**
+     * @return how often the buffer of the character stream had to grow to hold
+     *         a token
+     */
+    public int getBufferExpansions() {
+        return bufferExpansions;
+    }
+
+    /**
+     * @return false if parsing stopped with an error before the end of the
+     *         document
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ParseStatistics [bytes=").append(bytes);
+        sb.append(", time=").append(getParseTime(TimeUnit.MICROSECONDS)).append("us");
+        for (ElementType type : ElementType.values()) {
+            if (type != ElementType.EOF && elements[type.ordinal()] > 0) {
+                sb.append(", ").append(type).append('=').append(elements[type.ordinal()]);
+            }
+        }
+        sb.append(", recoveries=").append(recoveries);
+        sb.append(", bufferExpansions=").append(bufferExpansions);
+        if (!complete) {
+            sb.append(", incomplete");
+        }
+        return sb.append(']').toString();
+    }
+
+}
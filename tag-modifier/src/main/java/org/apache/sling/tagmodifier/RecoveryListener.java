@@ -0,0 +1,36 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Told about input the parser could not parse and returned as text, see
+ * {@link TagIterator#recovering(RecoveryListener)}.
+ */
+@ConsumerType
+public interface RecoveryListener {
+
+    /**
+     * Called before the text is returned by the iterator.
+     *
+     * @param text   the text element, a {@link CursorElement} is only valid
+     *               during the call
+     * @param line   line the text starts at
+     * @param column column the text starts at
+     * @param reason why the input could not be parsed
+     */
+    void recovered(Element text, int line, int column, String reason);
+
+}
@@ -13,13 +13,14 @@
  */
 package org.apache.sling.tagmodifier;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.apache.sling.tagmodifier.impl.ChunkSpliterator;
 import org.osgi.annotation.versioning.ProviderType;
 
 /**
@@ -33,7 +34,52 @@ public class Tag {
     }
     
     public static Stream<Element> stream(String input) {
-        return stream(new ByteArrayInputStream(input.getBytes()));
+        return stream((CharSequence) input);
+    }
+
+    /**
+     * Parses characters held in memory without encoding them to bytes first.
+     * 
+     * @param input the document
+     * @return stream of elements
+     */
+    public static Stream<Element> stream(CharSequence input) {
+        return stream(new TagIterator(input));
+    }
+
+    /**
+     * Parses a large document held in memory in parallel. The document is cut
+     * into chunks between tags, outside of comments, attribute values and the
+     * bodies of script, style and textarea elements. The chunks are parsed on
+     * the fork join pool of the stream, the elements keep the document order.
+     * 
+     * @param input the document
+     * @return parallel stream of elements
+     */
+    public static Stream<Element> parallelStream(CharSequence input) {
+        return parallelStream(input, ChunkSpliterator.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Parses a large document held in memory in parallel.
+     * 
+     * @see #parallelStream(CharSequence)
+     * @param input     the document
+     * @param chunkSize minimum number of characters parsed as one piece
+     * @return parallel stream of elements
+     */
+    public static Stream<Element> parallelStream(CharSequence input, int chunkSize) {
+        return StreamSupport.stream(new ChunkSpliterator(input, chunkSize), true);
+    }
+
+    /**
+     * Parses already decoded characters.
+     * 
+     * @param reader source of the document
+     * @return stream of elements
+     */
+    public static Stream<Element> stream(Reader reader) {
+        return stream(new TagIterator(reader));
     }
 
     public static Stream<Element> stream(InputStream is) {
@@ -44,7 +90,13 @@ public class Tag {
         return stream(new TagIterator(is, encoding));
     }
 
-    private static Stream<Element> stream(TagIterator iterator) {
+    /**
+     * Streams the elements of an iterator, for example one in lazy mode.
+     * 
+     * @param iterator the iterator
+     * @return stream of elements
+     */
+    public static Stream<Element> stream(TagIterator iterator) {
         return StreamSupport.stream(
                 Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.IMMUTABLE), false);
     }
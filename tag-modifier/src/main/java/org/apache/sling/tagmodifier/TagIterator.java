@@ -13,11 +13,24 @@
  */
 package org.apache.sling.tagmodifier;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import org.apache.sling.tagmodifier.impl.CharSequenceCharStream;
+import org.apache.sling.tagmodifier.impl.CountingInputStream;
+import org.apache.sling.tagmodifier.impl.CursorTagParser;
+import org.apache.sling.tagmodifier.impl.EncodingSniffer;
+import org.apache.sling.tagmodifier.impl.InterningTokenManager;
+import org.apache.sling.tagmodifier.impl.LazyTagParser;
 import org.apache.sling.tagmodifier.impl.ParseException;
+import org.apache.sling.tagmodifier.impl.RingCharStream;
+import org.apache.sling.tagmodifier.impl.SimpleCharStream;
 import org.apache.sling.tagmodifier.impl.TagParser;
 import org.osgi.annotation.versioning.ProviderType;
 
@@ -28,13 +41,207 @@ public class TagIterator implements Iterator<Element> {
 
     boolean eof = false;
     private TagParser parser;
+    private String encoding;
+    private CountingInputStream counter;
+
+    private TagMetrics metrics;
+    private ParseStatistics statistics;
+    private int bufferSize;
 
     public TagIterator(InputStream is) {
-        parser = new TagParser(is);
+        this(is, null);
     }
 
     public TagIterator(InputStream is, String encoding) {
-        parser = new TagParser(is, encoding);
+        counter = new CountingInputStream(is);
+        parser = parser(charStream(counter, encoding));
+        this.encoding = encoding;
+    }
+
+    /**
+     * Iterates over characters that have already been decoded.
+     * 
+     * @param reader source of the document
+     */
+    public TagIterator(Reader reader) {
+        parser = parser(new RingCharStream(reader));
+    }
+
+    /**
+     * Iterates over characters held in memory, the characters are read straight
+     * from the sequence without a Reader or any intermediate copy.
+     * 
+     * @param input the document
+     */
+    public TagIterator(CharSequence input) {
+        parser = parser(new CharSequenceCharStream(input));
+    }
+
+    /**
+     * Iterates over a range of characters held in memory.
+     * 
+     * @param input the document
+     * @param start index of the first character to parse
+     * @param end   index after the last character to parse
+     */
+    public TagIterator(CharSequence input, int start, int end) {
+        parser = parser(new CharSequenceCharStream(input, start, end));
+    }
+
+    private TagIterator(TagParser parser) {
+        this.parser = parser;
+    }
+
+    private TagIterator(TagParser parser, CountingInputStream counter) {
+        this.parser = parser;
+        this.counter = counter;
+    }
+
+    /**
+     * Creates an iterator in cursor mode. Instead of allocating new elements
+     * the iterator reuses one {@link CursorElement} per element type, the
+     * returned element is only valid until the iterator is advanced.
+     * 
+     * @param is       source of the document
+     * @param encoding of the source, the platform default is used when null
+     * @return iterator returning {@link CursorElement}s
+     */
+    public static TagIterator cursor(InputStream is, String encoding) {
+        CountingInputStream counting = new CountingInputStream(is);
+        return new TagIterator(new CursorTagParser(charStream(counting, encoding)), counting);
+    }
+
+    /**
+     * Creates an iterator in cursor mode over already decoded characters.
+     * 
+     * @see #cursor(InputStream, String)
+     * @param reader source of the document
+     * @return iterator returning {@link CursorElement}s
+     */
+    public static TagIterator cursor(Reader reader) {
+        return new TagIterator(new CursorTagParser(new RingCharStream(reader)));
+    }
+
+    /**
+     * Creates an iterator in cursor mode over characters held in memory.
+     * 
+     * @see #cursor(InputStream, String)
+     * @param input the document
+     * @return iterator returning {@link CursorElement}s
+     */
+    public static TagIterator cursor(CharSequence input) {
+        return new TagIterator(new CursorTagParser(new CharSequenceCharStream(input)));
+    }
+
+    /**
+     * Creates an iterator in lazy mode. Start tags keep the source of their
+     * attributes and parse it when the attributes are first accessed, tags
+     * whose attributes are never looked at are written out as they were read.
+     * 
+     * @param is       source of the document
+     * @param encoding of the source, the platform default is used when null
+     * @return iterator returning detached elements
+     */
+    public static TagIterator lazy(InputStream is, String encoding) {
+        CountingInputStream counting = new CountingInputStream(is);
+        return new TagIterator(new LazyTagParser(charStream(counting, encoding)), counting);
+    }
+
+    /**
+     * Creates an iterator in lazy mode over already decoded characters.
+     * 
+     * @see #lazy(InputStream, String)
+     * @param reader source of the document
+     * @return iterator returning detached elements
+     */
+    public static TagIterator lazy(Reader reader) {
+        return new TagIterator(new LazyTagParser(new RingCharStream(reader)));
+    }
+
+    /**
+     * Creates an iterator in lazy mode over characters held in memory.
+     * 
+     * @see #lazy(InputStream, String)
+     * @param input the document
+     * @return iterator returning detached elements
+     */
+    public static TagIterator lazy(CharSequence input) {
+        return new TagIterator(new LazyTagParser(new CharSequenceCharStream(input)));
+    }
+
+    /**
+     * Creates an iterator that determines the encoding of the document the way
+     * HTML5 does: a byte order mark, otherwise a meta charset within the first
+     * 1024 bytes, otherwise the fallback. The stream is only read once, the
+     * bytes looked at are decoded with the encoding that was found.
+     * 
+     * @param is       source of the document
+     * @param fallback encoding used if the document does not declare one, the
+     *                 platform default is used when null
+     * @return iterator returning detached elements
+     * @see #getEncoding()
+     */
+    public static TagIterator sniff(InputStream is, String fallback) {
+        CountingInputStream counting = new CountingInputStream(is);
+        EncodingSniffer sniffer;
+        try {
+            sniffer = EncodingSniffer.sniff(counting, fallback);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        TagIterator iterator = new TagIterator(parser(charStream(sniffer.getStream(), sniffer.getEncoding())), counting);
+        iterator.encoding = sniffer.getEncoding();
+        return iterator;
+    }
+
+    // names are returned as the canonical instances of a name table
+    private static TagParser parser(SimpleCharStream stream) {
+        return new TagParser(new InterningTokenManager(stream));
+    }
+
+    private static SimpleCharStream charStream(InputStream is, String encoding) {
+        try {
+            return new RingCharStream(encoding == null ? new InputStreamReader(is) : new InputStreamReader(is, encoding));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Collects statistics while the document is parsed and reports them to the
+     * metrics once the end of the document is reached or parsing stops with an
+     * error. Call before the first element is read.
+     * 
+     * @param metrics receives the statistics
+     * @return this iterator
+     */
+    public TagIterator measure(TagMetrics metrics) {
+        this.metrics = metrics;
+        this.statistics = new ParseStatistics();
+        this.bufferSize = parser.getBufferSize();
+        return this;
+    }
+
+    /**
+     * Turns on recovery mode. Input the parser fails on, such as an unclosed
+     * quote in a declaration or a lone {@code <} at the end, is returned as a
+     * text element that extends to the next tag, so the iterator always runs
+     * to the end of the document. Call before the first element is read.
+     * 
+     * @param listener told about every recovery, may be null
+     * @return this iterator
+     */
+    public TagIterator recovering(RecoveryListener listener) {
+        parser.setRecovering(listener);
+        return this;
+    }
+
+    /**
+     * @return the encoding the document is decoded with, null for characters
+     *         and for the platform default
+     */
+    public String getEncoding() {
+        return encoding;
     }
 
     @Override
@@ -62,8 +269,11 @@ public class TagIterator implements Iterator<Element> {
         if (eof) {
             return false;
         }
+        if (statistics != null) {
+            return measuredSeek();
+        }
         try {
-            current = parser.element();
+            current = parser.nextElement();
             eof =  (current.getType() == ElementType.EOF);
             return !eof;
         } catch (ParseException e) {
@@ -71,4 +281,28 @@ public class TagIterator implements Iterator<Element> {
         return false;
     }
 
-}
\ No newline at end of file
+    private boolean measuredSeek() {
+        long start = System.nanoTime();
+        try {
+            current = parser.nextElement();
+            statistics.element(current.getType(), System.nanoTime() - start);
+            eof = (current.getType() == ElementType.EOF);
+            if (eof) {
+                report(true);
+            }
+            return !eof;
+        } catch (ParseException e) {
+            report(false);
+        }
+        return false;
+    }
+
+    private void report(boolean complete) {
+        int expansions = parser.getBufferExpansions(bufferSize);
+        ParseStatistics reported = statistics;
+        reported.finish(counter == null ? -1 : counter.getCount(), parser.getRecoveryCount(), expansions, complete);
+        statistics = null;
+        metrics.parsed(reported);
+    }
+
+}
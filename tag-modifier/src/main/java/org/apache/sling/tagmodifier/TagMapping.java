@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -36,7 +37,18 @@ public class TagMapping {
 
     private List<Element> list = new ArrayList<>();
 
+    private final Consumer<Element> downstream;
+
     private TagMapping() {
+        this.downstream = null;
+    }
+
+    /**
+     * Hands the elements straight to the downstream consumer instead of
+     * collecting them.
+     */
+    TagMapping(Consumer<Element> downstream) {
+        this.downstream = downstream;
     }
 
     /**
@@ -45,6 +57,12 @@ public class TagMapping {
      * process.
      */
     public void next(Element... elements) {
+        if (downstream != null) {
+            for (Element element : elements) {
+                downstream.accept(element);
+            }
+            return;
+        }
         Collections.addAll(list, elements);
     }
 
@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Receives the statistics of parsed documents.
+ *
+ * An iterator reports to the metrics given to
+ * {@link TagIterator#measure(TagMetrics)}, the HTML parser service reports to
+ * all services registered with this interface. Implementations can forward the
+ * values to a metrics library, for example as Dropwizard timers and counters.
+ */
+@ConsumerType
+public interface TagMetrics {
+
+    /**
+     * Called once when a document has been parsed to the end, or when parsing
+     * stopped with an error.
+     *
+     * @param statistics of the document
+     */
+    void parsed(ParseStatistics statistics);
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import org.apache.sling.tagmodifier.impl.IncrementalTagParser;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Parses a document that is pushed to it in pieces, for input that arrives
+ * from a non blocking source such as an async servlet or a NIO channel.
+ *
+ * Nothing blocks and no input is read ahead. Each call to {@link #feed} passes
+ * on the elements that are complete, and the incomplete rest stays buffered.
+ * An element counts as complete once the start of the next tag has been seen,
+ * so the last element is held back until more input arrives or
+ * {@link #end()} is called.
+ * Markup that can not be parsed is returned as text.
+ *
+ * <pre>
+ * TagPushParser parser = new TagPushParser(element -&gt; ..., StandardCharsets.UTF_8);
+ * parser.feed(bytes); // as often as data arrives
+ * parser.end();
+ * </pre>
+ *
+ * A parser is not thread safe, calls to it have to be serialized by the
+ * caller.
+ */
+@ProviderType
+public class TagPushParser {
+
+    private static final int CHAR_BUFFER_SIZE = 4096;
+
+    private final IncrementalTagParser parser;
+    private final CharsetDecoder decoder;
+    private final CharBuffer decoded;
+    private final ByteBuffer carry = ByteBuffer.allocate(16);
+    private boolean ended;
+
+    /**
+     * Creates a parser that decodes bytes as UTF-8.
+     *
+     * @param consumer receives the elements in document order, the document is
+     *                 finished with an {@link ElementType#EOF} element
+     */
+    public TagPushParser(Consumer<Element> consumer) {
+        this(consumer, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param consumer receives the elements in document order, the document is
+     *                 finished with an {@link ElementType#EOF} element
+     * @param charset  used to decode the bytes passed to {@link #feed(ByteBuffer)}
+     */
+    public TagPushParser(Consumer<Element> consumer, Charset charset) {
+        // parse as soon as a boundary is seen
+        this.parser = new IncrementalTagParser(consumer, 1);
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.decoded = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    }
+
+    /**
+     * Parses the characters, the buffer is consumed completely.
+     *
+     * @param chars next piece of the document
+     */
+    public void feed(CharBuffer chars) {
+        checkOpen();
+        if (chars.hasArray()) {
+            int length = chars.remaining();
+            parser.write(chars.array(), chars.arrayOffset() + chars.position(), length);
+            chars.position(chars.position() + length);
+            return;
+        }
+        while (chars.hasRemaining()) {
+            decoded.clear();
+            int length = Math.min(decoded.capacity(), chars.remaining());
+            for (int i = 0; i < length; ++i) {
+                decoded.put(chars.get());
+            }
+            parser.write(decoded.array(), 0, length);
+        }
+    }
+
+    /**
+     * Decodes and parses the bytes, the buffer is consumed completely. Bytes of
+     * a character that is split across calls are kept until the next call.
+     *
+     * @param bytes next piece of the document
+     */
+    public void feed(ByteBuffer bytes) {
+        checkOpen();
+        // complete a character left over from the previous call one byte at a time
+        while (carry.position() > 0 && bytes.hasRemaining()) {
+            carry.put(bytes.get());
+            carry.flip();
+            decode(carry, false);
+            carry.compact();
+        }
+        decode(bytes, false);
+        carry.put(bytes);
+    }
+
+    /**
+     * Parses what is left of the document and passes the EOF element on. Bytes
+     * of an incomplete character are replaced.
+     */
+    public void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        carry.flip();
+        decode(carry, true);
+        decoded.clear();
+        decoder.flush(decoded);
+        decoded.flip();
+        parser.write(decoded.array(), 0, decoded.remaining());
+        parser.end();
+    }
+
+    private void decode(ByteBuffer input, boolean endOfInput) {
+        CoderResult result;
+        do {
+            decoded.clear();
+            result = decoder.decode(input, decoded, endOfInput);
+            decoded.flip();
+            if (decoded.hasRemaining()) {
+                parser.write(decoded.array(), 0, decoded.remaining());
+            }
+        } while (result.isOverflow());
+    }
+
+    private void checkOpen() {
+        if (ended) {
+            throw new IllegalStateException("parser has already been ended");
+        }
+    }
+
+}
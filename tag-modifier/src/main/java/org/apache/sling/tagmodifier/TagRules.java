@@ -0,0 +1,346 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A set of rewrite rules that is applied to every element in a single pass.
+ *
+ * <pre>
+ * TagRules rules = TagRules.builder()
+ *     .on(ElementType.START_TAG, "a", "area").having("href").rewrite("href", href -&gt; map(href))
+ *     .on(ElementType.START_TAG, "img").rewrite("src", src -&gt; map(src))
+ *     .on(ElementType.COMMENT).drop()
+ *     .build();
+ *
+ * Tag.stream(in).forEach(rules.into(new HtmlWriter(out)));
+ * </pre>
+ *
+ * The rules are compiled into a table keyed by element type and tag name, so
+ * an element is only tested against the rules that can apply to it and an
+ * element without any matching rule is handed on unchanged. Rules are applied
+ * in the order they were added, the elements passed to
+ * {@link TagMapping#next(Element...)} by one rule are seen by the rules added
+ * after it, as if every rule was a flatMap stage of its own.
+ *
+ * Tag names are matched case insensitively. A TagRules instance is immutable
+ * and can be shared, the consumers and functions it creates can not.
+ */
+@ProviderType
+public class TagRules {
+
+    private static final int[] NONE = new int[0];
+
+    private final Rule[] rules;
+
+    // rules by element type for tag names without rules of their own
+    private final int[][] byType;
+
+    // rules by element type and lower case tag name
+    private final List<Map<String, int[]>> byName;
+
+    private TagRules(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[0]);
+        ElementType[] types = ElementType.values();
+        this.byType = new int[types.length][];
+        this.byName = new ArrayList<>(types.length);
+        for (ElementType type : types) {
+            List<Integer> any = new ArrayList<>();
+            Set<String> names = new LinkedHashSet<>();
+            for (int i = 0; i < this.rules.length; ++i) {
+                Rule rule = this.rules[i];
+                if (rule.type == type) {
+                    if (rule.names == null) {
+                        any.add(i);
+                    } else {
+                        names.addAll(rule.names);
+                    }
+                }
+            }
+            byType[type.ordinal()] = toArray(any);
+            Map<String, int[]> table = new HashMap<>();
+            for (String name : names) {
+                List<Integer> matching = new ArrayList<>();
+                for (int i = 0; i < this.rules.length; ++i) {
+                    Rule rule = this.rules[i];
+                    if (rule.type == type && (rule.names == null || rule.names.contains(name))) {
+                        matching.add(i);
+                    }
+                }
+                table.put(name, toArray(matching));
+            }
+            byName.add(table);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates a consumer that applies the rules and passes the results to the
+     * downstream consumer, without any intermediate collection or stream.
+     *
+     * @param downstream receives the resulting elements in order
+     * @return consumer to pass the elements of a document to
+     */
+    public Consumer<Element> into(Consumer<? super Element> downstream) {
+        return new Pipeline(downstream);
+    }
+
+    /**
+     * Creates a function for {@link Stream#flatMap(Function)}. Elements without
+     * a matching rule are passed on without collecting them first.
+     *
+     * @return function applying the rules
+     */
+    public Function<Element, Stream<Element>> flatMap() {
+        List<Element> list = new ArrayList<>();
+        Pipeline pipeline = new Pipeline(list::add);
+        return element -> {
+            if (!pipeline.matches(element)) {
+                return Stream.of(element);
+            }
+            list.clear();
+            pipeline.accept(element);
+            return list.stream();
+        };
+    }
+
+    private int[] candidates(Element element) {
+        ElementType type = element.getType();
+        Map<String, int[]> table = byName.get(type.ordinal());
+        if (!table.isEmpty()) {
+            String name = element.getValue();
+            int[] found = table.get(name);
+            if (found == null && hasUpperCase(name)) {
+                found = table.get(name.toLowerCase(Locale.ROOT));
+            }
+            if (found != null) {
+                return found;
+            }
+        }
+        return byType[type.ordinal()];
+    }
+
+    private static boolean hasUpperCase(String name) {
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.isUpperCase(name.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NONE;
+        }
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * One instance per document, the mapping of a rule passes its elements on to
+     * the rules that follow it.
+     */
+    private final class Pipeline implements Consumer<Element> {
+
+        private final Consumer<? super Element> downstream;
+        private final TagMapping[] mappings;
+
+        Pipeline(Consumer<? super Element> downstream) {
+            this.downstream = downstream;
+            this.mappings = new TagMapping[rules.length];
+            for (int i = 0; i < rules.length; ++i) {
+                int next = i + 1;
+                mappings[i] = new TagMapping(element -> dispatch(element, next));
+            }
+        }
+
+        @Override
+        public void accept(Element element) {
+            dispatch(element, 0);
+        }
+
+        boolean matches(Element element) {
+            for (int index : candidates(element)) {
+                if (rules[index].matches(element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void dispatch(Element element, int from) {
+            for (int index : candidates(element)) {
+                if (index >= from && rules[index].matches(element)) {
+                    rules[index].action.accept(element, mappings[index]);
+                    return;
+                }
+            }
+            downstream.accept(element);
+        }
+    }
+
+    private static final class Rule {
+
+        private final ElementType type;
+        private final Set<String> names;
+        private final List<String> required;
+        private final List<Predicate<Element>> conditions;
+        private final BiConsumer<Element, TagMapping> action;
+
+        Rule(RuleBuilder builder, BiConsumer<Element, TagMapping> action) {
+            this.type = builder.type;
+            this.names = builder.names;
+            this.required = builder.required;
+            this.conditions = builder.conditions;
+            this.action = action;
+        }
+
+        boolean matches(Element element) {
+            for (String attribute : required) {
+                if (!element.containsAttribute(attribute)) {
+                    return false;
+                }
+            }
+            for (Predicate<Element> condition : conditions) {
+                if (!condition.test(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Rule> rules = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Starts a rule for elements of the given type.
+         *
+         * @param type  of the elements the rule applies to
+         * @param names tag names the rule is limited to, all elements of the type
+         *              when none are given
+         * @return builder of the rule
+         */
+        public RuleBuilder on(ElementType type, String... names) {
+            return new RuleBuilder(this, type, names);
+        }
+
+        public TagRules build() {
+            return new TagRules(rules);
+        }
+    }
+
+    public static final class RuleBuilder {
+
+        private final Builder builder;
+        private final ElementType type;
+        private final Set<String> names;
+        private final List<String> required = new ArrayList<>();
+        private final List<Predicate<Element>> conditions = new ArrayList<>();
+
+        private RuleBuilder(Builder builder, ElementType type, String... names) {
+            this.builder = builder;
+            this.type = type;
+            if (names.length == 0) {
+                this.names = null;
+            } else {
+                this.names = new LinkedHashSet<>();
+                for (String name : names) {
+                    this.names.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+
+        /**
+         * Limits the rule to elements that have the attribute.
+         */
+        public RuleBuilder having(String attribute) {
+            required.add(attribute);
+            return this;
+        }
+
+        /**
+         * Limits the rule to elements that match the condition.
+         */
+        public RuleBuilder when(Predicate<Element> condition) {
+            conditions.add(condition);
+            return this;
+        }
+
+        /**
+         * Completes the rule with an action that works like the consumer of
+         * {@link TagMapping#map(BiConsumer)}, only the elements passed to
+         * {@link TagMapping#next(Element...)} are kept.
+         */
+        public Builder apply(BiConsumer<Element, TagMapping> action) {
+            builder.rules.add(new Rule(this, action));
+            return builder;
+        }
+
+        /**
+         * Completes the rule with the replacement of an attribute value. Elements
+         * without a value for the attribute are passed on unchanged, as are
+         * elements for which the function returns null.
+         */
+        public Builder rewrite(String attribute, UnaryOperator<String> function) {
+            return apply((element, mapping) -> {
+                if (element.containsAttribute(attribute)) {
+                    String value = element.getAttributeValue(attribute);
+                    if (value != null) {
+                        String rewritten = function.apply(value);
+                        if (rewritten != null && !rewritten.equals(value)) {
+                            element.setAttribute(attribute, rewritten);
+                        }
+                    }
+                }
+                mapping.next(element);
+            });
+        }
+
+        /**
+         * Completes the rule with the removal of the matching elements.
+         */
+        public Builder drop() {
+            return apply((element, mapping) -> {
+            });
+        }
+    }
+
+}
@@ -13,17 +13,21 @@
  */
 package org.apache.sling.tagmodifier.consumer;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.function.Consumer;
 
 import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.CursorElement;
 import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.impl.TextSpan;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.ext.Attributes2Impl;
 import org.xml.sax.ext.DefaultHandler2;
 import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
 
 public class HtmlSAXSupport implements Consumer<Element> {
     
@@ -33,6 +37,15 @@ public class HtmlSAXSupport implements Consumer<Element> {
     private LexicalHandler lexicalHandler = handler;
     private boolean initialized;
 
+    private static final int CHUNK = 1024;
+
+    // reused for every start tag and every text or comment that is not
+    // already held in a character array, text is passed on in chunks
+    private final AttributesImpl attributes = new AttributesImpl();
+    private final CursorAttributes cursorAttributes = new CursorAttributes();
+    private String[] names = new String[16];
+    private char[] chars = new char[CHUNK];
+
     public HtmlSAXSupport(ContentHandler ch, final LexicalHandler lh) {
         if (ch != null) {
             contentHandler = ch;
@@ -49,26 +62,38 @@ public class HtmlSAXSupport implements Consumer<Element> {
                 contentHandler.startDocument();
                 initialized = true;
             }
-            String value = element.getValue();
             switch (element.getType()) {
             case COMMENT:
-                lexicalHandler.comment(value.toCharArray(), 0, value.length());
+                if (element instanceof CursorElement && ((CursorElement) element).getValueSequence() instanceof TextSpan) {
+                    TextSpan span = (TextSpan) ((CursorElement) element).getValueSequence();
+                    lexicalHandler.comment(span.array(), span.offset(), span.length());
+                } else {
+                    String value = element.getValue();
+                    lexicalHandler.comment(toChars(value), 0, value.length());
+                }
                 break;
             case DOCTYPE:
                 break;
             case END_TAG:
-                lexicalHandler.endEntity(value);
-                contentHandler.endElement("", value, value);
+                String name = element.getValue();
+                lexicalHandler.endEntity(name);
+                contentHandler.endElement("", name, name);
                 break;
             case EOF:
                 contentHandler.endDocument();
                 break;
             case START_TAG:
-                lexicalHandler.startEntity(value);
-                contentHandler.startElement("", value, value, HtmlSAXSupport.convert(element.getAttributes()));
+                String tagName = element.getValue();
+                lexicalHandler.startEntity(tagName);
+                contentHandler.startElement("", tagName, tagName, attributes(element));
                 break;
             case TEXT:
-                contentHandler.characters(value.toCharArray(), 0, value.toCharArray().length);
+                if (element instanceof CursorElement && ((CursorElement) element).getValueSequence() instanceof TextSpan) {
+                    TextSpan span = (TextSpan) ((CursorElement) element).getValueSequence();
+                    contentHandler.characters(span.array(), span.offset(), span.length());
+                } else {
+                    characters(element.getValue());
+                }
                 break;
             default:
                 break;
@@ -87,4 +112,168 @@ public class HtmlSAXSupport implements Consumer<Element> {
         return response;
     }
 
+    private Attributes attributes(Element element) {
+        if (element instanceof CursorElement) {
+            return attributes((CursorElement) element);
+        }
+        attributes.clear();
+        for (Map.Entry<String, AttrValue> attr : element.getAttributes().entrySet()) {
+            attributes.addAttribute("", attr.getKey(), attr.getKey(), "xsi:String", attr.getValue().toString());
+        }
+        return attributes;
+    }
+
+    /**
+     * The attributes of a cursor element without duplicates, the last
+     * occurrence wins like it does for the attribute map. The names are the
+     * canonical Strings of the name table of the parser and are collected in
+     * an open addressing set, so one pass over the attributes finds the
+     * duplicates without creating objects.
+     */
+    private Attributes attributes(CursorElement element) {
+        int count = element.getAttributeCount();
+        int capacity = names.length;
+        while (capacity < count * 2) {
+            capacity *= 2;
+        }
+        if (capacity > names.length) {
+            names = new String[capacity];
+        }
+        cursorAttributes.start(element, count);
+        int mask = names.length - 1;
+        for (int i = count - 1; i >= 0; --i) {
+            String name = element.getAttributeName(i).toString();
+            int slot = name.hashCode() & mask;
+            while (names[slot] != null && !names[slot].equals(name)) {
+                slot = (slot + 1) & mask;
+            }
+            if (names[slot] == null) {
+                names[slot] = name;
+                cursorAttributes.keep(i);
+            }
+        }
+        Arrays.fill(names, null);
+        cursorAttributes.finish();
+        return cursorAttributes;
+    }
+
+    private void characters(String value) throws SAXException {
+        for (int start = 0, length = value.length(); start < length; start += CHUNK) {
+            int end = Math.min(length, start + CHUNK);
+            value.getChars(start, end, chars, 0);
+            contentHandler.characters(chars, 0, end - start);
+        }
+    }
+
+    private char[] toChars(String value) {
+        if (chars.length < value.length()) {
+            chars = new char[Math.max(value.length(), chars.length * 2)];
+        }
+        value.getChars(0, value.length(), chars, 0);
+        return chars;
+    }
+
+    /**
+     * Attributes of a cursor element, values are only turned into Strings
+     * when they are asked for.
+     */
+    private static final class CursorAttributes implements Attributes {
+
+        private CursorElement element;
+        private int[] indexes = new int[16];
+        private int length;
+
+        void start(CursorElement element, int count) {
+            this.element = element;
+            if (indexes.length < count) {
+                indexes = new int[Math.max(count, indexes.length * 2)];
+            }
+            length = 0;
+        }
+
+        /**
+         * Adds an attribute, attributes are added from the last to the first.
+         */
+        void keep(int index) {
+            indexes[length++] = index;
+        }
+
+        void finish() {
+            for (int i = 0, j = length - 1; i < j; ++i, --j) {
+                int index = indexes[i];
+                indexes[i] = indexes[j];
+                indexes[j] = index;
+            }
+        }
+
+        @Override
+        public int getLength() {
+            return length;
+        }
+
+        @Override
+        public String getURI(int index) {
+            return index >= 0 && index < length ? "" : null;
+        }
+
+        @Override
+        public String getLocalName(int index) {
+            return getQName(index);
+        }
+
+        @Override
+        public String getQName(int index) {
+            return index >= 0 && index < length ? element.getAttributeName(indexes[index]).toString() : null;
+        }
+
+        @Override
+        public String getType(int index) {
+            return index >= 0 && index < length ? "xsi:String" : null;
+        }
+
+        @Override
+        public String getValue(int index) {
+            if (index < 0 || index >= length) {
+                return null;
+            }
+            CharSequence value = element.getAttributeValue(indexes[index]);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public int getIndex(String uri, String localName) {
+            return uri.isEmpty() ? getIndex(localName) : -1;
+        }
+
+        @Override
+        public int getIndex(String qName) {
+            for (int i = 0; i < length; ++i) {
+                if (qName.contentEquals(element.getAttributeName(indexes[i]))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String getType(String uri, String localName) {
+            return getType(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getType(String qName) {
+            return getType(getIndex(qName));
+        }
+
+        @Override
+        public String getValue(String uri, String localName) {
+            return getValue(getIndex(uri, localName));
+        }
+
+        @Override
+        public String getValue(String qName) {
+            return getValue(getIndex(qName));
+        }
+    }
+
 }
@@ -0,0 +1,305 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * Follows the lexical states of the tag grammar over arbitrary chunks of
+ * characters so that a document can be cut into segments which parse to the
+ * same elements as the document as a whole.
+ *
+ * A safe boundary is the position of a '&lt;' that is found in plain text,
+ * that is outside of tags, attribute values, comments, declarations and the
+ * bodies of script, style and textarea elements.
+ */
+public class BoundaryScanner {
+
+    private static final int TEXT = 0;
+    private static final int LT = 1;
+    private static final int LT_SLASH = 2;
+    private static final int LT_BANG = 3;
+    private static final int LT_BANG_DASH = 4;
+    private static final int TAG_NAME = 5;
+    private static final int IN_TAG = 6;
+    private static final int TAG_SLASH = 7;
+    private static final int ATTR_VALUE = 8;
+    private static final int UNQUOTED = 9;
+    private static final int QUOTED = 10;
+    private static final int COMMENT = 11;
+    private static final int DECL = 12;
+    private static final int DECL_QUOTED = 13;
+    private static final int RAW = 14;
+
+    private static final char[][] RAW_TEXT_ELEMENTS = { "script".toCharArray(), "style".toCharArray(),
+            "textarea".toCharArray() };
+
+    private int state = TEXT;
+    private char quote;
+    private int dashes;
+    private boolean endTag;
+
+    private final char[] name = new char[8];
+    private int nameLength;
+
+    private char[] rawName;
+    private int rawMatched;
+
+    /**
+     * Feeds the characters between from (inclusive) and to (exclusive) to the
+     * scanner.
+     *
+     * @param buffer characters to scan
+     * @param from   first index to scan
+     * @param to     index after the last character to scan
+     * @return the index of the last safe boundary within the range or -1
+     */
+    public int scan(char[] buffer, int from, int to) {
+        int boundary = -1;
+        int i = from;
+        while (i < to) {
+            char c = buffer[i];
+            switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    boundary = i;
+                    state = LT;
+                }
+                break;
+            case LT:
+                if (c == '/') {
+                    state = LT_SLASH;
+                } else if (c == '!') {
+                    state = LT_BANG;
+                } else if (isNameChar(c)) {
+                    startName(c, false);
+                } else {
+                    state = TEXT;
+                }
+                break;
+            case LT_SLASH:
+                if (isNameChar(c)) {
+                    startName(c, true);
+                } else {
+                    state = TEXT;
+                }
+                break;
+            case LT_BANG:
+                if (c == '-') {
+                    state = LT_BANG_DASH;
+                } else if (isNameChar(c)) {
+                    state = DECL;
+                } else {
+                    state = TEXT;
+                }
+                break;
+            case LT_BANG_DASH:
+                if (c == '-') {
+                    dashes = 0;
+                    state = COMMENT;
+                } else if (c == '>') {
+                    state = TEXT;
+                } else {
+                    state = DECL;
+                }
+                break;
+            case TAG_NAME:
+                if (isSpace(c)) {
+                    state = IN_TAG;
+                } else if (c == '>') {
+                    endOfTag();
+                } else if (c == '/') {
+                    state = TAG_SLASH;
+                } else if (nameLength < name.length) {
+                    name[nameLength++] = c;
+                } else {
+                    nameLength = name.length + 1;
+                }
+                break;
+            case IN_TAG:
+                if (c == '>') {
+                    endOfTag();
+                } else if (c == '/') {
+                    state = TAG_SLASH;
+                } else if (c == '=') {
+                    state = ATTR_VALUE;
+                }
+                break;
+            case TAG_SLASH:
+                if (c == '>') {
+                    state = TEXT;
+                    break;
+                }
+                // a lone slash is an error token, the parser resumes in text
+                state = TEXT;
+                continue;
+            case ATTR_VALUE:
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                    state = QUOTED;
+                } else if (c == '>') {
+                    state = TEXT;
+                } else if (!isSpace(c)) {
+                    state = UNQUOTED;
+                }
+                break;
+            case UNQUOTED:
+                if (c == '>') {
+                    endOfTag();
+                } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                    state = IN_TAG;
+                } else if (c == '"' || c == '\'') {
+                    state = IN_TAG;
+                }
+                break;
+            case QUOTED:
+                if (c == quote) {
+                    state = IN_TAG;
+                }
+                break;
+            case COMMENT:
+                if (c == '>' && dashes >= 2) {
+                    state = TEXT;
+                } else if (c == '-') {
+                    dashes++;
+                } else {
+                    dashes = 0;
+                }
+                break;
+            case DECL:
+                if (c == '>') {
+                    state = TEXT;
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                    state = DECL_QUOTED;
+                }
+                break;
+            case DECL_QUOTED:
+                if (c == quote) {
+                    state = DECL;
+                }
+                break;
+            case RAW:
+                if (rawMatched == 0) {
+                    if (c == '<') {
+                        rawMatched = 1;
+                    }
+                } else if (rawMatched == 1) {
+                    rawMatched = c == '/' ? 2 : (c == '<' ? 1 : 0);
+                } else if (rawMatched - 2 < rawName.length) {
+                    if (Character.toLowerCase(c) == rawName[rawMatched - 2]) {
+                        rawMatched++;
+                    } else {
+                        rawMatched = c == '<' ? 1 : 0;
+                    }
+                } else if (isSpace(c) || c == '/' || c == '>') {
+                    // the end tag of the raw text element, continue after its name
+                    endTag = true;
+                    nameLength = 0;
+                    state = TAG_NAME;
+                    continue;
+                } else {
+                    rawMatched = c == '<' ? 1 : 0;
+                }
+                break;
+            default:
+                break;
+            }
+            ++i;
+        }
+        return boundary;
+    }
+
+    /**
+     * @return true if the characters scanned so far end outside of any markup
+     */
+    public boolean isInText() {
+        return state == TEXT;
+    }
+
+    /**
+     * @return true if the characters scanned so far end in the content of a
+     *         script, style or textarea element
+     */
+    public boolean isInRawText() {
+        return state == RAW;
+    }
+
+    /**
+     * @return the name of the raw text element the characters scanned so far
+     *         end in, or null
+     */
+    public String getRawText() {
+        return state == RAW ? new String(rawName) : null;
+    }
+
+    /**
+     * @return the number of characters at the end of raw text that may start
+     *         its end tag
+     */
+    public int getEndTagPrefix() {
+        return state == RAW ? rawMatched : 0;
+    }
+
+    /**
+     * Returns the scanner to its initial state
+     */
+    public void reset() {
+        state = TEXT;
+        nameLength = 0;
+        rawName = null;
+        rawMatched = 0;
+    }
+
+    private void startName(char c, boolean end) {
+        endTag = end;
+        name[0] = c;
+        nameLength = 1;
+        state = TAG_NAME;
+    }
+
+    private void endOfTag() {
+        state = TEXT;
+        if (endTag) {
+            return;
+        }
+        for (char[] raw : RAW_TEXT_ELEMENTS) {
+            if (matchesName(raw)) {
+                rawName = raw;
+                rawMatched = 0;
+                state = RAW;
+                return;
+            }
+        }
+    }
+
+    private boolean matchesName(char[] candidate) {
+        if (candidate.length != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; ++i) {
+            if (Character.toLowerCase(name[i]) != candidate[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\u000C';
+    }
+
+    private static boolean isNameChar(char c) {
+        return !isSpace(c) && c != '/' && c != '>';
+    }
+
+}
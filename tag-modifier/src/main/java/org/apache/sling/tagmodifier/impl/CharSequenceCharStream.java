@@ -0,0 +1,147 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * A SimpleCharStream that takes its characters straight from a CharSequence.
+ *
+ * No Reader or intermediate byte array is involved, characters are copied from
+ * the sequence into the lexer window as the token manager requests them.
+ */
+public class CharSequenceCharStream extends SimpleCharStream {
+
+    private CharSequence sequence;
+    private int position;
+    private int end;
+
+    public CharSequenceCharStream(CharSequence sequence) {
+        this(sequence, 0, sequence.length());
+    }
+
+    /**
+     * @param sequence characters to read
+     * @param start    index of the first character to read
+     * @param end      index after the last character to read
+     */
+    public CharSequenceCharStream(CharSequence sequence, int start, int end) {
+        super((java.io.Reader) null, 1, 1, 4096);
+        setSequence(sequence, start, end);
+    }
+
+    /**
+     * Reinitialise with a new range of characters, the lexer window is kept.
+     */
+    public void ReInit(CharSequence sequence, int start, int end) {
+        ReInit((java.io.Reader) null, 1, 1, buffer.length);
+        setSequence(sequence, start, end);
+    }
+
+    private void setSequence(CharSequence sequence, int start, int end) {
+        if (start < 0 || end > sequence.length() || start > end) {
+            throw new IndexOutOfBoundsException("invalid range " + start + " to " + end);
+        }
+        this.sequence = sequence;
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    protected void FillBuff() throws IOException {
+        // buffer management is the same as in SimpleCharStream
+        if (maxNextCharInd == available) {
+            if (available == bufsize) {
+                if (tokenBegin > 2048) {
+                    bufpos = maxNextCharInd = 0;
+                    available = tokenBegin;
+                } else if (tokenBegin < 0) {
+                    bufpos = maxNextCharInd = 0;
+                } else {
+                    ExpandBuff(false);
+                }
+            } else if (available > tokenBegin) {
+                available = bufsize;
+            } else if ((tokenBegin - available) < 2048) {
+                ExpandBuff(true);
+            } else {
+                available = tokenBegin;
+            }
+        }
+
+        int count = Math.min(available - maxNextCharInd, end - position);
+        if (count <= 0) {
+            --bufpos;
+            backup(0);
+            if (tokenBegin == -1) {
+                tokenBegin = bufpos;
+            }
+            throw new IOException();
+        }
+        copy(position, count, maxNextCharInd);
+        position += count;
+        maxNextCharInd += count;
+    }
+
+    /**
+     * Moves over the characters in the lexer window up to the next occurrence
+     * of c, which is the next character read. The characters are scanned in
+     * one loop instead of a readChar call each; line and column are updated as
+     * readChar would, only the position of the last skipped character records
+     * them.
+     */
+    void skipTo(char c) {
+        if (inBuf > 0) {
+            return;
+        }
+        char[] chars = buffer;
+        int stop = maxNextCharInd;
+        int i = bufpos + 1;
+        while (i < stop) {
+            char ch = chars[i];
+            if (ch == c) {
+                break;
+            }
+            if (ch > '\r' && !prevCharIsCR && !prevCharIsLF) {
+                column++;
+            } else {
+                bufpos = i;
+                UpdateLineColumn(ch);
+            }
+            ++i;
+        }
+        if (i > bufpos + 1) {
+            bufpos = i - 1;
+            bufline[bufpos] = line;
+            bufcolumn[bufpos] = column;
+        }
+    }
+
+    private void copy(int from, int count, int to) {
+        if (sequence instanceof String) {
+            ((String) sequence).getChars(from, from + count, buffer, to);
+        } else if (sequence instanceof StringBuilder) {
+            ((StringBuilder) sequence).getChars(from, from + count, buffer, to);
+        } else if (sequence instanceof CharBuffer && ((CharBuffer) sequence).hasArray()) {
+            CharBuffer chars = (CharBuffer) sequence;
+            System.arraycopy(chars.array(), chars.arrayOffset() + chars.position() + from, buffer, to, count);
+        } else {
+            for (int i = 0; i < count; ++i) {
+                buffer[to + i] = sequence.charAt(from + i);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.TagIterator;
+
+/**
+ * Spliterator over a document held in memory that is cut into chunks at safe
+ * boundaries, see {@link BoundaryScanner}. Every chunk is parsed on its own,
+ * so chunks can be handed to different threads while the encounter order is
+ * the document order.
+ *
+ * The cuts are found in one sequential pass over the characters before
+ * parsing starts, which only follows the lexical states and is much cheaper
+ * than parsing.
+ */
+public class ChunkSpliterator implements Spliterator<Element> {
+
+    /**
+     * Default minimum number of characters in a chunk
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    // rough number of characters per element, used for the size estimate
+    private static final int CHARS_PER_ELEMENT = 32;
+
+    private static final int SCAN_BLOCK = 8192;
+
+    private final CharSequence input;
+    private final int[] cuts;
+    private int chunk;
+    private final int endChunk;
+    private TagIterator current;
+
+    /**
+     * @param input     the document
+     * @param chunkSize minimum number of characters in a chunk
+     */
+    public ChunkSpliterator(CharSequence input, int chunkSize) {
+        this(input, cuts(input, chunkSize), 0, -1);
+    }
+
+    private ChunkSpliterator(CharSequence input, int[] cuts, int chunk, int endChunk) {
+        this.input = input;
+        this.cuts = cuts;
+        this.chunk = chunk;
+        this.endChunk = endChunk < 0 ? cuts.length - 1 : endChunk;
+    }
+
+    /**
+     * Finds the positions the document is cut at. The result starts with 0 and
+     * ends with the length of the input, every position in between is a safe
+     * boundary at least chunkSize characters after the previous one.
+     */
+    private static int[] cuts(CharSequence input, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size <= 0");
+        }
+        int length = input.length();
+        int[] cuts = new int[Math.max(2, length / chunkSize + 2)];
+        int count = 1;
+        BoundaryScanner scanner = new BoundaryScanner();
+        char[] block = new char[SCAN_BLOCK];
+        int position = 0;
+        while (position < length) {
+            int blockLength = Math.min(SCAN_BLOCK, length - position);
+            copy(input, position, blockLength, block);
+            int boundary = scanner.scan(block, 0, blockLength);
+            if (boundary > 0 || boundary == 0 && position > 0) {
+                boundary += position;
+                if (boundary - cuts[count - 1] >= chunkSize) {
+                    if (count == cuts.length - 1) {
+                        cuts = Arrays.copyOf(cuts, cuts.length * 2);
+                    }
+                    cuts[count++] = boundary;
+                }
+            }
+            position += blockLength;
+        }
+        cuts[count++] = length;
+        return Arrays.copyOf(cuts, count);
+    }
+
+    private static void copy(CharSequence input, int start, int length, char[] block) {
+        if (input instanceof String) {
+            ((String) input).getChars(start, start + length, block, 0);
+        } else if (input instanceof StringBuilder) {
+            ((StringBuilder) input).getChars(start, start + length, block, 0);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                block[i] = input.charAt(start + i);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Element> action) {
+        while (chunk < endChunk) {
+            if (current == null) {
+                current = new TagIterator(input, cuts[chunk], cuts[chunk + 1]);
+            }
+            if (current.hasNext()) {
+                action.accept(current.next());
+                return true;
+            }
+            current = null;
+            chunk++;
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<Element> trySplit() {
+        // a chunk that is being parsed stays with the prefix
+        int first = current == null ? chunk : chunk + 1;
+        if (endChunk - first < 2) {
+            return null;
+        }
+        int middle = (first + endChunk) >>> 1;
+        ChunkSpliterator prefix = new ChunkSpliterator(input, cuts, chunk, middle);
+        prefix.current = current;
+        current = null;
+        chunk = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (cuts[endChunk] - cuts[chunk]) / CHARS_PER_ELEMENT;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | IMMUTABLE | NONNULL;
+    }
+
+}
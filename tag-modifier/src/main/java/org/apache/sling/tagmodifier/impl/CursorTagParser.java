@@ -0,0 +1,145 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.util.Map;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.ElementType;
+import org.apache.sling.tagmodifier.impl.tag.ReusableElement;
+
+/**
+ * Parser for cursor mode, every call to {@link #element()} returns the reused
+ * {@link ReusableElement} of the element type.
+ *
+ * Names, values and attributes refer to the {@link TextBuffer} of the token
+ * manager, no Strings, maps or attribute values are created while parsing.
+ */
+public class CursorTagParser extends TagParser {
+
+    private final TextBuffer text;
+    private final ReusableElement[] elements = new ReusableElement[ElementType.values().length];
+
+    public CursorTagParser(SimpleCharStream stream) {
+        this(new CursorTokenManager(stream, new TextBuffer()));
+    }
+
+    private CursorTagParser(CursorTokenManager tokenManager) {
+        super(tokenManager);
+        this.text = tokenManager.getText();
+        NameTable names = NameTable.create();
+        for (ElementType type : ElementType.values()) {
+            elements[type.ordinal()] = new ReusableElement(type, text, names);
+        }
+    }
+
+    @Override
+    protected Element startTag(Token name, Map<String, AttrValue> attributes, Token end) {
+        SpanToken span = (SpanToken) name;
+        ReusableElement element = elements[ElementType.START_TAG.ordinal()];
+        element.setValue(span.position, span.length);
+        element.setSelfClosing(isSelfClosing(end));
+        return start(element, span.position);
+    }
+
+    @Override
+    protected boolean isName(Token name, String lower) {
+        SpanToken span = (SpanToken) name;
+        return text.equalsLowerCase(span.position, span.length, lower);
+    }
+
+    @Override
+    protected boolean isSelfClosing(Token end) {
+        return ((SpanToken) end).length == 2;
+    }
+
+    @Override
+    protected Element endTag(Token name) {
+        SpanToken span = (SpanToken) name;
+        return start(reset(ElementType.END_TAG, span.position, span.length), span.position);
+    }
+
+    @Override
+    protected Element declaration(Token tag, Map<String, AttrValue> attributes) {
+        SpanToken span = (SpanToken) tag;
+        ReusableElement element = elements[ElementType.START_TAG.ordinal()];
+        element.setValue(span.position, span.length);
+        element.setSelfClosing(false);
+        return start(element, span.position);
+    }
+
+    @Override
+    protected Element text(Token token) {
+        SpanToken span = (SpanToken) token;
+        return start(reset(ElementType.TEXT, span.position, span.length), span.position);
+    }
+
+    @Override
+    protected Element text(Token first, Token last) {
+        Token begin = first;
+        while (begin.specialToken != null) {
+            begin = begin.specialToken;
+        }
+        int position = ((SpanToken) begin).position;
+        return start(reset(ElementType.TEXT, position, ((SpanToken) last).end() - position), position);
+    }
+
+    @Override
+    protected Element comment(Token first, Token last) {
+        if (first == null) {
+            return start(reset(ElementType.COMMENT, text.position(), 0), text.position());
+        }
+        int position = ((SpanToken) first).position;
+        return start(reset(ElementType.COMMENT, position, ((SpanToken) last).end() - position), position);
+    }
+
+    @Override
+    protected Element endOfFile() {
+        return start(reset(ElementType.EOF, text.position(), 0), text.position());
+    }
+
+    @Override
+    protected Map<String, AttrValue> attributeMap() {
+        elements[ElementType.START_TAG.ordinal()].clearAttributes();
+        return null;
+    }
+
+    @Override
+    protected void addAttribute(Map<String, AttrValue> attributes, Token name, Token value) {
+        SpanToken nameSpan = (SpanToken) name;
+        ReusableElement element = elements[ElementType.START_TAG.ordinal()];
+        if (value == null) {
+            element.addAttribute(nameSpan.position, nameSpan.length, 0, -1);
+            return;
+        }
+        SpanToken valueSpan = (SpanToken) value;
+        if (value.kind == STRING) {
+            element.addAttribute(nameSpan.position, nameSpan.length, valueSpan.position + 1, valueSpan.length - 2);
+        } else {
+            element.addAttribute(nameSpan.position, nameSpan.length, valueSpan.position, valueSpan.length);
+        }
+    }
+
+    private ReusableElement reset(ElementType type, int position, int length) {
+        return elements[type.ordinal()].reset(position, length);
+    }
+
+    private Element start(ReusableElement element, int position) {
+        // the previous element is no longer in use, its text may be dropped
+        text.mark(position);
+        return element;
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * Token manager that copies the text of every token into a {@link TextBuffer}
+ * instead of creating a String image for it.
+ *
+ * Tokens are appended in the order they are read, special tokens included, so
+ * the source of any run of tokens is a contiguous range of the buffer.
+ */
+public class CursorTokenManager extends TagParserTokenManager {
+
+    private final TextBuffer text;
+
+    public CursorTokenManager(SimpleCharStream stream, TextBuffer text) {
+        super(stream);
+        this.text = text;
+    }
+
+    public TextBuffer getText() {
+        return text;
+    }
+
+    @Override
+    protected Token jjFillToken() {
+        String literal = jjstrLiteralImages[jjmatchedKind];
+        SpanToken token = new SpanToken(jjmatchedKind, literal == null ? "" : literal);
+        token.position = text.position();
+        if (jjmatchedKind != EOF) {
+            SimpleCharStream in = input_stream;
+            if (in.bufpos >= in.tokenBegin) {
+                text.append(in.buffer, in.tokenBegin, in.bufpos - in.tokenBegin + 1);
+            } else {
+                text.append(in.buffer, in.tokenBegin, in.bufsize - in.tokenBegin);
+                text.append(in.buffer, 0, in.bufpos + 1);
+            }
+        }
+        token.length = text.position() - token.position;
+        token.beginLine = input_stream.getBeginLine();
+        token.beginColumn = input_stream.getBeginColumn();
+        token.endLine = input_stream.getEndLine();
+        token.endColumn = input_stream.getEndColumn();
+        return token;
+    }
+
+    @Override
+    void TokenLexicalActions(Token matchedToken) {
+        // the quotes of a STRING stay in the buffer and are skipped by the parser
+    }
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Locale;
+
+/**
+ * Determines the encoding of an HTML document from its first bytes.
+ *
+ * A byte order mark takes precedence, otherwise the first 1024 bytes are
+ * scanned for a meta element declaring the charset, following the prescan
+ * of the HTML5 encoding sniffing algorithm. The bytes that were looked at are
+ * pushed back, so the document is decoded from the start without reading the
+ * underlying stream again.
+ */
+public final class EncodingSniffer {
+
+    /**
+     * Number of bytes scanned for a meta charset
+     */
+    public static final int PRESCAN_LENGTH = 1024;
+
+    private final InputStream stream;
+    private final String encoding;
+
+    private EncodingSniffer(InputStream stream, String encoding) {
+        this.stream = stream;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Reads the start of the stream and determines its encoding.
+     *
+     * @param is       the document
+     * @param fallback encoding to use if none is declared
+     * @return the stream positioned after a byte order mark and its encoding
+     * @throws IOException if reading the start of the stream fails
+     */
+    public static EncodingSniffer sniff(InputStream is, String fallback) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(is, PRESCAN_LENGTH);
+        byte[] head = new byte[PRESCAN_LENGTH];
+        int length = 0;
+        int read;
+        while (length < head.length && (read = in.read(head, length, head.length - length)) > 0) {
+            length += read;
+        }
+        int bom = 0;
+        String encoding;
+        if (length >= 3 && (head[0] & 0xff) == 0xef && (head[1] & 0xff) == 0xbb && (head[2] & 0xff) == 0xbf) {
+            bom = 3;
+            encoding = "UTF-8";
+        } else if (length >= 2 && (head[0] & 0xff) == 0xfe && (head[1] & 0xff) == 0xff) {
+            bom = 2;
+            encoding = "UTF-16BE";
+        } else if (length >= 2 && (head[0] & 0xff) == 0xff && (head[1] & 0xff) == 0xfe) {
+            bom = 2;
+            encoding = "UTF-16LE";
+        } else {
+            encoding = prescan(head, length);
+        }
+        if (length > bom) {
+            in.unread(head, bom, length - bom);
+        }
+        return new EncodingSniffer(in, encoding == null ? fallback : encoding);
+    }
+
+    /**
+     * @return the stream to decode, without the byte order mark
+     */
+    public InputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * @return the detected encoding or the fallback
+     */
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Looks for a meta element that declares the charset.
+     *
+     * @return the declared charset or null
+     */
+    static String prescan(byte[] bytes, int length) {
+        Scanner scanner = new Scanner(bytes, length);
+        while (scanner.position < length) {
+            if (scanner.startsWith("<!--")) {
+                scanner.skipPast("-->", 2);
+            } else if (scanner.startsWithIgnoreCase("<meta") && scanner.isSpaceOrSlash(scanner.position + 5)) {
+                scanner.position += 5;
+                String charset = scanner.meta();
+                if (charset != null) {
+                    return charset;
+                }
+            } else if (scanner.at(0) == '<' && (isLetter(scanner.at(1)) || scanner.at(1) == '/' && isLetter(scanner.at(2)))) {
+                scanner.position += scanner.at(1) == '/' ? 2 : 1;
+                while (scanner.position < length && !isSpace(scanner.at(0)) && scanner.at(0) != '>') {
+                    scanner.position++;
+                }
+                while (scanner.attribute()) {
+                    // skip the attributes of other tags
+                }
+            } else if (scanner.startsWith("<!") || scanner.startsWith("</") || scanner.startsWith("<?")) {
+                scanner.skipPast(">", 0);
+            } else {
+                scanner.position++;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isLetter(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * @return the charset name in a content attribute like "text/html; charset=..."
+     */
+    static String charsetFromContent(String content) {
+        String lower = content.toLowerCase(Locale.ROOT);
+        int index = 0;
+        while ((index = lower.indexOf("charset", index)) >= 0) {
+            int i = index + 7;
+            while (i < lower.length() && isSpace(lower.charAt(i))) {
+                i++;
+            }
+            if (i >= lower.length() || lower.charAt(i) != '=') {
+                index = i;
+                continue;
+            }
+            i++;
+            while (i < lower.length() && isSpace(lower.charAt(i))) {
+                i++;
+            }
+            if (i >= lower.length()) {
+                return null;
+            }
+            char quote = content.charAt(i);
+            if (quote == '"' || quote == '\'') {
+                int end = content.indexOf(quote, i + 1);
+                return end < 0 ? null : content.substring(i + 1, end);
+            }
+            int end = i;
+            while (end < content.length() && !isSpace(content.charAt(end)) && content.charAt(end) != ';') {
+                end++;
+            }
+            return content.substring(i, end);
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of a supported charset for the label, as adjusted by
+     *         the HTML5 rules, or null
+     */
+    static String supported(String label) {
+        String name = label.trim();
+        String lower = name.toLowerCase(Locale.ROOT);
+        // a document that could be read as ASCII can not be UTF-16
+        if (lower.startsWith("utf-16")) {
+            return "UTF-8";
+        }
+        if (lower.equals("x-user-defined")) {
+            return "windows-1252";
+        }
+        try {
+            return Charset.isSupported(name) ? Charset.forName(name).name() : null;
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Position in the prescanned bytes with the steps of the prescan.
+     */
+    private static final class Scanner {
+
+        private final byte[] bytes;
+        private final int length;
+        private int position;
+
+        private String name;
+        private String value;
+
+        Scanner(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        int at(int offset) {
+            int index = position + offset;
+            return index < length ? bytes[index] & 0xff : -1;
+        }
+
+        boolean isSpaceOrSlash(int index) {
+            return index < length && (isSpace(bytes[index]) || bytes[index] == '/');
+        }
+
+        boolean startsWith(String prefix) {
+            for (int i = 0; i < prefix.length(); ++i) {
+                if (at(i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean startsWithIgnoreCase(String prefix) {
+            for (int i = 0; i < prefix.length(); ++i) {
+                int c = at(i);
+                if (c != prefix.charAt(i) && (c < 'A' || c > 'Z' || c + 32 != prefix.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Moves past the next occurrence of the text, searching from the given
+         * offset.
+         */
+        void skipPast(String text, int offset) {
+            position += offset;
+            while (position < length && !startsWith(text)) {
+                position++;
+            }
+            position = Math.min(length, position + text.length());
+        }
+
+        /**
+         * Reads the attributes of a meta element.
+         *
+         * @return the declared charset or null
+         */
+        String meta() {
+            boolean gotPragma = false;
+            boolean needPragma = false;
+            boolean seenHttpEquiv = false;
+            boolean seenContent = false;
+            boolean seenCharset = false;
+            String charset = null;
+            while (attribute()) {
+                if (name.equals("http-equiv") && !seenHttpEquiv) {
+                    seenHttpEquiv = true;
+                    gotPragma = value.equals("content-type");
+                } else if (name.equals("content") && !seenContent && charset == null) {
+                    seenContent = true;
+                    String declared = charsetFromContent(value);
+                    if (declared != null) {
+                        charset = declared;
+                        needPragma = true;
+                    }
+                } else if (name.equals("charset") && !seenCharset) {
+                    seenCharset = true;
+                    charset = value;
+                    needPragma = false;
+                }
+            }
+            if (charset == null || needPragma && !gotPragma) {
+                return null;
+            }
+            return supported(charset);
+        }
+
+        /**
+         * Reads the next attribute into name and value, names and values are
+         * lower cased as they are only compared with ASCII.
+         *
+         * @return false at the end of the tag
+         */
+        boolean attribute() {
+            while (position < length && (isSpace(bytes[position]) || bytes[position] == '/')) {
+                position++;
+            }
+            if (position >= length || bytes[position] == '>') {
+                position++;
+                return false;
+            }
+            StringBuilder attributeName = new StringBuilder();
+            StringBuilder attributeValue = new StringBuilder();
+            // the name, a leading = belongs to it
+            do {
+                attributeName.append(lower(bytes[position++]));
+            } while (position < length && bytes[position] != '=' && bytes[position] != '/' && bytes[position] != '>'
+                    && !isSpace(bytes[position]));
+            while (position < length && isSpace(bytes[position])) {
+                position++;
+            }
+            if (position < length && bytes[position] == '=') {
+                position++;
+                while (position < length && isSpace(bytes[position])) {
+                    position++;
+                }
+                if (position < length && (bytes[position] == '"' || bytes[position] == '\'')) {
+                    byte quote = bytes[position++];
+                    while (position < length && bytes[position] != quote) {
+                        attributeValue.append(lower(bytes[position++]));
+                    }
+                    position++;
+                } else {
+                    while (position < length && !isSpace(bytes[position]) && bytes[position] != '>') {
+                        attributeValue.append(lower(bytes[position++]));
+                    }
+                }
+            }
+            name = attributeName.toString();
+            value = attributeValue.toString();
+            return true;
+        }
+
+        private static char lower(byte b) {
+            int c = b & 0xff;
+            return (char) (c >= 'A' && c <= 'Z' ? c + 32 : c);
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.ElementType;
+import org.apache.sling.tagmodifier.impl.tag.EndOfFile;
+
+/**
+ * Parses characters as they are written instead of requiring the complete
+ * document up front.
+ *
+ * Written characters are kept until a safe boundary has been seen, at that
+ * point everything before the boundary is parsed and the resulting elements
+ * are passed to the consumer. Only the incomplete tail of the document is
+ * held in memory. Text and the content of script, style and textarea elements
+ * are parsed in pieces once a maximum number of characters has been written
+ * without a boundary, raw text that is cut continues as raw text. A tag,
+ * comment or declaration is never cut, its characters are kept until it is
+ * complete. The parser runs in recovery mode, so no content is lost.
+ */
+public class IncrementalTagParser {
+
+    private static final int DEFAULT_THRESHOLD = 4096;
+
+    private static final int DEFAULT_MAX_PENDING = 64 * 1024;
+
+    private final Consumer<Element> consumer;
+    private final BoundaryScanner scanner = new BoundaryScanner();
+    private final int threshold;
+    private final int maxPending;
+
+    private char[] pending = new char[DEFAULT_THRESHOLD * 2];
+    private int length;
+    private int boundary;
+    private boolean ended;
+    private String resumeRawText;
+
+    private CharSequenceCharStream stream;
+    private InterningTokenManager tokenManager;
+    private TagParser parser;
+
+    public IncrementalTagParser(Consumer<Element> consumer) {
+        this(consumer, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param consumer  receives the elements in document order
+     * @param threshold number of parseable characters to collect before they
+     *                  are parsed
+     */
+    public IncrementalTagParser(Consumer<Element> consumer, int threshold) {
+        this(consumer, threshold, Math.max(DEFAULT_MAX_PENDING, threshold * 2));
+    }
+
+    /**
+     * @param consumer   receives the elements in document order
+     * @param threshold  number of parseable characters to collect before they
+     *                   are parsed
+     * @param maxPending number of characters after which text and raw text are
+     *                   parsed even without a boundary
+     */
+    public IncrementalTagParser(Consumer<Element> consumer, int threshold, int maxPending) {
+        if (maxPending < threshold) {
+            throw new IllegalArgumentException("maxPending < threshold");
+        }
+        this.consumer = consumer;
+        this.threshold = threshold;
+        this.maxPending = maxPending;
+    }
+
+    public void write(char[] cbuf, int off, int len) {
+        if (ended) {
+            throw new IllegalStateException("parser has already been ended");
+        }
+        if (length + len > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, length + len));
+        }
+        System.arraycopy(cbuf, off, pending, length, len);
+        int found = scanner.scan(pending, length, length + len);
+        length += len;
+        if (found > 0) {
+            boundary = found;
+        }
+        if (boundary >= threshold || length > maxPending) {
+            flush();
+        }
+        if (length > maxPending) {
+            cut();
+        }
+    }
+
+    /**
+     * Parses everything up to the last safe boundary seen so far.
+     */
+    public void flush() {
+        if (boundary > 0) {
+            parse(boundary, false);
+            discard(boundary);
+        }
+    }
+
+    /**
+     * Parses the pending characters although they do not end at a boundary. In
+     * raw text the cut is made before a possible end tag and the next segment
+     * continues the raw text. Within markup nothing is cut, so that a long tag
+     * such as an image with a data URI is not returned as text.
+     */
+    private void cut() {
+        if (!scanner.isInText() && !scanner.isInRawText()) {
+            return;
+        }
+        String rawText = scanner.getRawText();
+        int end = length - scanner.getEndTagPrefix();
+        if (end > 0) {
+            parse(end, false);
+            discard(end);
+            resumeRawText = rawText;
+        }
+    }
+
+    private void discard(int end) {
+        System.arraycopy(pending, end, pending, 0, length - end);
+        length -= end;
+        boundary = 0;
+    }
+
+    /**
+     * Parses the remaining characters and signals the end of the document with
+     * an EOF element.
+     */
+    public void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        parse(length, true);
+        length = 0;
+        boundary = 0;
+        scanner.reset();
+    }
+
+    private void parse(int end, boolean last) {
+        CharBuffer chars = CharBuffer.wrap(pending, 0, end);
+        if (parser == null) {
+            stream = new CharSequenceCharStream(chars);
+            tokenManager = new InterningTokenManager(stream);
+            parser = new TagParser(tokenManager);
+            parser.setRecovering(null);
+        } else {
+            stream.ReInit(chars, 0, end);
+            tokenManager.ReInit(stream);
+            parser.ReInit(tokenManager);
+        }
+        if (resumeRawText != null) {
+            parser.resumeRawText(resumeRawText);
+            resumeRawText = null;
+        }
+        try {
+            Element element = parser.nextElement();
+            while (element.getType() != ElementType.EOF) {
+                consumer.accept(element);
+                element = parser.nextElement();
+            }
+        } catch (ParseException e) {
+            // not thrown in recovery mode, errors are returned as text
+        }
+        if (last) {
+            consumer.accept(new EndOfFile());
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * Token manager that returns the canonical instances of a {@link NameTable}
+ * as the image of tag, attribute and declaration names. Names found in the
+ * table are read from the buffer of the stream without creating a String.
+ */
+public class InterningTokenManager extends TagParserTokenManager {
+
+    private final NameTable names;
+
+    public InterningTokenManager(SimpleCharStream stream) {
+        this(stream, NameTable.create());
+    }
+
+    public InterningTokenManager(SimpleCharStream stream, NameTable names) {
+        super(stream);
+        this.names = names;
+    }
+
+    public NameTable getNames() {
+        return names;
+    }
+
+    @Override
+    protected Token jjFillToken() {
+        if (!isName(jjmatchedKind)) {
+            return super.jjFillToken();
+        }
+        SimpleCharStream in = input_stream;
+        if (in.bufpos < in.tokenBegin) {
+            // the name wraps around the end of the buffer
+            Token token = super.jjFillToken();
+            token.image = names.intern(token.image);
+            return token;
+        }
+        Token token = Token.newToken(jjmatchedKind,
+                names.intern(in.buffer, in.tokenBegin, in.bufpos - in.tokenBegin + 1));
+        token.beginLine = in.getBeginLine();
+        token.beginColumn = in.getBeginColumn();
+        token.endLine = in.getEndLine();
+        token.endColumn = in.getEndColumn();
+        return token;
+    }
+
+    private static boolean isName(int kind) {
+        return kind == TAG_NAME || kind == ATTR_NAME || kind == DECL_TAG || kind == DECL_ATTR;
+    }
+
+}
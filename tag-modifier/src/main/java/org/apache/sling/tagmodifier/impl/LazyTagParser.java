@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.util.Map;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.impl.tag.AttributeMap;
+import org.apache.sling.tagmodifier.impl.tag.Comment;
+import org.apache.sling.tagmodifier.impl.tag.EndTag;
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
+import org.apache.sling.tagmodifier.impl.tag.TextData;
+
+/**
+ * Parser for lazy mode, start tags keep the source of their attributes and
+ * parse it when the attributes are first accessed.
+ *
+ * The tokens are read into a {@link TextBuffer} as in cursor mode, so no map,
+ * attribute value or String per attribute token is created while parsing.
+ * Unlike cursor mode the elements are detached and stay valid. Text recovered
+ * from a tag that could not be parsed is the exact source, quotes included.
+ */
+public class LazyTagParser extends TagParser {
+
+    private final TextBuffer text;
+    private final NameTable names = NameTable.create();
+
+    public LazyTagParser(SimpleCharStream stream) {
+        this(new CursorTokenManager(stream, new TextBuffer()));
+    }
+
+    private LazyTagParser(CursorTokenManager tokenManager) {
+        super(tokenManager);
+        this.text = tokenManager.getText();
+    }
+
+    @Override
+    protected Element startTag(Token name, Map<String, AttrValue> attributes, Token end) {
+        SpanToken nameSpan = (SpanToken) name;
+        // the source includes the space before the end of the tag, so that an
+        // unchanged tag is written back as it was read
+        int position = ((SpanToken) end).position;
+        StartTag tag = StartTag.lazy(name(nameSpan),
+                text.toString(nameSpan.end(), position - nameSpan.end()), isSelfClosing(end));
+        return done(tag);
+    }
+
+    @Override
+    protected boolean isName(Token name, String lower) {
+        SpanToken span = (SpanToken) name;
+        return text.equalsLowerCase(span.position, span.length, lower);
+    }
+
+    @Override
+    protected boolean isSelfClosing(Token end) {
+        return ((SpanToken) end).length == 2;
+    }
+
+    @Override
+    protected Element endTag(Token name) {
+        return done(new EndTag(name((SpanToken) name)));
+    }
+
+    @Override
+    protected Element declaration(Token tag, Map<String, AttrValue> attributes) {
+        Map<String, AttrValue> declared = new AttributeMap();
+        for (Token t = tag.next; t != null && t.kind == DECL_ATTR; t = t.next) {
+            SpanToken span = (SpanToken) t;
+            declared.put(text.toString(span.position, span.length), new AttrValue());
+        }
+        return done(new StartTag(name((SpanToken) tag), declared));
+    }
+
+    @Override
+    protected Element text(Token token) {
+        SpanToken span = (SpanToken) token;
+        return done(new TextData(text.toString(span.position, span.length)));
+    }
+
+    @Override
+    protected Element text(Token first, Token last) {
+        Token begin = first;
+        while (begin.specialToken != null) {
+            begin = begin.specialToken;
+        }
+        int position = ((SpanToken) begin).position;
+        return done(new TextData(text.toString(position, ((SpanToken) last).end() - position)));
+    }
+
+    @Override
+    protected Element comment(Token first, Token last) {
+        if (first == null) {
+            return done(new Comment(""));
+        }
+        int position = ((SpanToken) first).position;
+        return done(new Comment(text.toString(position, ((SpanToken) last).end() - position)));
+    }
+
+    @Override
+    protected void addAttribute(Map<String, AttrValue> attributes, Token name, Token value) {
+        // tags keep the source, declarations read their tokens
+    }
+
+    @Override
+    protected Map<String, AttrValue> attributeMap() {
+        return null;
+    }
+
+    private String name(SpanToken span) {
+        return names.intern(text.array(), text.index(span.position), span.length);
+    }
+
+    private Element done(Element element) {
+        // the text of the element has been copied, tokens looked ahead at stay
+        text.mark(((SpanToken) token).end());
+        return element;
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * Table of canonical tag and attribute names.
+ *
+ * Names are looked up straight from a character range, a String is only
+ * created the first time a name is seen. The HTML5 element and attribute
+ * names are shared by all tables, so the same instance is returned for them
+ * across documents and they can be compared by identity. Other names are kept
+ * per table, up to a limit so that garbage input can not grow it without end.
+ *
+ * A table is not thread safe, use one per parser.
+ */
+public final class NameTable {
+
+    private static final String[] HTML5_ELEMENTS = { "a", "abbr", "address", "area", "article", "aside", "audio",
+            "b", "base", "bdi", "bdo", "blockquote", "body", "br", "button", "canvas", "caption", "cite", "code",
+            "col", "colgroup", "data", "datalist", "dd", "del", "details", "dfn", "dialog", "div", "dl", "dt", "em",
+            "embed", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "head",
+            "header", "hgroup", "hr", "html", "i", "iframe", "img", "input", "ins", "kbd", "label", "legend", "li",
+            "link", "main", "map", "mark", "menu", "meta", "meter", "nav", "noscript", "object", "ol", "optgroup",
+            "option", "output", "p", "param", "picture", "pre", "progress", "q", "rp", "rt", "ruby", "s", "samp",
+            "script", "section", "select", "slot", "small", "source", "span", "strong", "style", "sub", "summary",
+            "sup", "svg", "math", "table", "tbody", "td", "template", "textarea", "tfoot", "th", "thead", "time",
+            "title", "tr", "track", "u", "ul", "var", "video", "wbr", "center", "font", "frame", "frameset", "DOCTYPE" };
+
+    private static final String[] HTML5_ATTRIBUTES = { "accept", "accept-charset", "accesskey", "action", "align",
+            "allow", "allowfullscreen", "alt", "as", "async", "autocapitalize", "autocomplete", "autofocus", "autoplay",
+            "border", "charset", "checked", "cite", "class", "color", "cols", "colspan", "content", "contenteditable",
+            "controls", "coords", "crossorigin", "data", "datetime", "decoding", "default", "defer", "dir", "dirname",
+            "disabled", "download", "draggable", "enctype", "enterkeyhint", "for", "form", "formaction",
+            "formenctype", "formmethod", "formnovalidate", "formtarget", "headers", "height", "hidden", "high",
+            "href", "hreflang", "http-equiv", "id", "inert", "inputmode", "integrity", "is", "ismap", "itemid",
+            "itemprop", "itemref", "itemscope", "itemtype", "kind", "label", "lang", "list", "loading", "loop",
+            "low", "max", "maxlength", "media", "method", "min", "minlength", "multiple", "muted", "name",
+            "nomodule", "nonce", "novalidate", "open", "optimum", "pattern", "ping", "placeholder", "playsinline",
+            "poster", "preload", "property", "readonly", "referrerpolicy", "rel", "required", "reversed", "role",
+            "rows", "rowspan", "sandbox", "scope", "selected", "shape", "size", "sizes", "slot", "span",
+            "spellcheck", "src", "srcdoc", "srclang", "srcset", "start", "step", "style", "tabindex", "target",
+            "title", "translate", "type", "usemap", "value", "width", "wrap", "xmlns", "xml:lang", "onabort",
+            "onblur", "onchange", "onclick", "oncontextmenu", "ondblclick", "onerror", "onfocus", "oninput",
+            "onkeydown", "onkeypress", "onkeyup", "onload", "onmousedown", "onmouseout", "onmouseover", "onmouseup",
+            "onreset", "onresize", "onscroll", "onselect", "onsubmit", "onunload", "aria-controls",
+            "aria-describedby", "aria-disabled", "aria-expanded", "aria-haspopup", "aria-hidden", "aria-label",
+            "aria-labelledby", "aria-live", "aria-pressed", "aria-selected" };
+
+    private static final int DEFAULT_LIMIT = 1024;
+
+    private static final NameTable VOCABULARY = new NameTable();
+
+    private final NameTable shared;
+    private final int limit;
+    private String[] names;
+    private int[] hashes;
+    private int size;
+
+    private NameTable() {
+        this.shared = null;
+        this.limit = Integer.MAX_VALUE;
+        this.names = new String[512];
+        this.hashes = new int[512];
+        for (String name : HTML5_ELEMENTS) {
+            intern(name);
+        }
+        for (String name : HTML5_ATTRIBUTES) {
+            intern(name);
+        }
+    }
+
+    /**
+     * Creates a table that returns the shared instances for the HTML5
+     * vocabulary and keeps up to 1024 other names.
+     */
+    public static NameTable create() {
+        return new NameTable(DEFAULT_LIMIT);
+    }
+
+    private NameTable(int limit) {
+        this.shared = VOCABULARY;
+        this.limit = limit;
+        this.names = new String[64];
+        this.hashes = new int[64];
+    }
+
+    /**
+     * @return the canonical instance of the name in the range
+     */
+    public String intern(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            hash = 31 * hash + chars[i];
+        }
+        if (shared != null) {
+            String name = shared.find(hash, chars, offset, length);
+            if (name != null) {
+                return name;
+            }
+        }
+        String name = find(hash, chars, offset, length);
+        if (name == null) {
+            name = new String(chars, offset, length);
+            add(hash, name);
+        }
+        return name;
+    }
+
+    /**
+     * @return the canonical instance of the name
+     */
+    public String intern(String name) {
+        int hash = name.hashCode();
+        if (shared != null) {
+            String found = shared.find(hash, name);
+            if (found != null) {
+                return found;
+            }
+        }
+        String found = find(hash, name);
+        if (found == null) {
+            add(hash, name);
+            return name;
+        }
+        return found;
+    }
+
+    private String find(int hash, char[] chars, int offset, int length) {
+        int mask = names.length - 1;
+        for (int slot = spread(hash) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+            String name = names[slot];
+            if (hashes[slot] == hash && name.length() == length) {
+                int i = 0;
+                while (i < length && name.charAt(i) == chars[offset + i]) {
+                    ++i;
+                }
+                if (i == length) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private String find(int hash, String name) {
+        int mask = names.length - 1;
+        for (int slot = spread(hash) & mask; names[slot] != null; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash && names[slot].equals(name)) {
+                return names[slot];
+            }
+        }
+        return null;
+    }
+
+    private void add(int hash, String name) {
+        if (size >= limit) {
+            return;
+        }
+        if ((size + 1) * 2 > names.length) {
+            resize();
+        }
+        insert(names, hashes, hash, name);
+        size++;
+    }
+
+    private void resize() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        names = new String[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        for (int i = 0; i < oldNames.length; ++i) {
+            if (oldNames[i] != null) {
+                insert(names, hashes, oldHashes[i], oldNames[i]);
+            }
+        }
+    }
+
+    private static void insert(String[] names, int[] hashes, int hash, String name) {
+        int mask = names.length - 1;
+        int slot = spread(hash) & mask;
+        while (names[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        names[slot] = name;
+        hashes[slot] = hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A SimpleCharStream with a fixed amount of memory per parse.
+ *
+ * The characters are read into a ring of fixed capacity, which is reused from
+ * the start as soon as the current token has moved far enough. A token that
+ * does not fit, such as a large text node or an inline script, spills into a
+ * buffer that doubles in size until the token fits, and the stream returns to
+ * the fixed ring when the next token starts. SimpleCharStream instead grows by 2048 characters at a
+ * time, copying the token on every step, and keeps the largest buffer for the
+ * rest of the document.
+ *
+ * Line and column numbers need two int arrays of the size of the buffer, they
+ * are only tracked if asked for. Otherwise tokens report line and column 0.
+ */
+public class RingCharStream extends SimpleCharStream {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final boolean trackLines;
+    // free space before the current token from which the ring is reused
+    private final int chunk;
+    private int expansions;
+
+    /**
+     * A stream with the default capacity that does not track lines.
+     * 
+     * @param reader source of the characters
+     */
+    public RingCharStream(Reader reader) {
+        this(reader, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param reader     source of the characters
+     * @param capacity   size of the ring
+     * @param trackLines whether tokens have line and column numbers
+     */
+    public RingCharStream(Reader reader, int capacity, boolean trackLines) {
+        super(reader, 1, 1, capacity);
+        if (capacity < 64) {
+            throw new IllegalArgumentException("capacity < 64");
+        }
+        this.capacity = capacity;
+        this.trackLines = trackLines;
+        this.chunk = Math.min(2048, capacity / 4);
+        if (!trackLines) {
+            bufline = null;
+            bufcolumn = null;
+        }
+    }
+
+    /**
+     * @return how often the buffer grew for a token that did not fit
+     */
+    public int getExpansionCount() {
+        return expansions;
+    }
+
+    /**
+     * Reinitialise with a new reader, the buffer size is always the capacity of
+     * the ring.
+     */
+    @Override
+    public void ReInit(Reader reader, int startline, int startcolumn, int buffersize) {
+        super.ReInit(reader, startline, startcolumn, capacity);
+        if (!trackLines) {
+            bufline = null;
+            bufcolumn = null;
+        }
+        expansions = 0;
+    }
+
+    @Override
+    public char BeginToken() throws IOException {
+        if (bufsize > capacity) {
+            shrink();
+        }
+        return super.BeginToken();
+    }
+
+    @Override
+    protected void FillBuff() throws IOException {
+        // the buffer management of SimpleCharStream, relative to the capacity
+        if (maxNextCharInd == available) {
+            if (available == bufsize) {
+                if (tokenBegin > chunk) {
+                    bufpos = maxNextCharInd = 0;
+                    available = tokenBegin;
+                } else if (tokenBegin < 0) {
+                    bufpos = maxNextCharInd = 0;
+                } else {
+                    ExpandBuff(false);
+                }
+            } else if (available > tokenBegin) {
+                available = bufsize;
+            } else if ((tokenBegin - available) < chunk) {
+                ExpandBuff(true);
+            } else {
+                available = tokenBegin;
+            }
+        }
+
+        try {
+            int read = inputStream.read(buffer, maxNextCharInd, available - maxNextCharInd);
+            if (read == -1) {
+                inputStream.close();
+                throw new IOException();
+            }
+            maxNextCharInd += read;
+        } catch (IOException e) {
+            --bufpos;
+            backup(0);
+            if (tokenBegin == -1) {
+                tokenBegin = bufpos;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the current token into a buffer of twice the size.
+     */
+    @Override
+    protected void ExpandBuff(boolean wrapAround) {
+        int size = bufsize * 2;
+        char[] chars = new char[size];
+        int[] lines = trackLines ? new int[size] : null;
+        int[] columns = trackLines ? new int[size] : null;
+        int head = bufsize - tokenBegin;
+        copy(tokenBegin, chars, lines, columns, 0, head);
+        if (wrapAround) {
+            copy(0, chars, lines, columns, head, bufpos);
+            maxNextCharInd = (bufpos += head);
+        } else {
+            maxNextCharInd = (bufpos -= tokenBegin);
+        }
+        buffer = chars;
+        bufline = lines;
+        bufcolumn = columns;
+        available = bufsize = size;
+        tokenBegin = 0;
+        expansions++;
+    }
+
+    /**
+     * Moves over the characters that are already in the buffer up to the next
+     * occurrence of c, which is read next. Only used when lines are not
+     * tracked, as the line of every character would have to be recorded.
+     */
+    void skipTo(char c) {
+        if (trackLines || inBuf > 0) {
+            return;
+        }
+        char[] chars = buffer;
+        int end = maxNextCharInd;
+        int i = bufpos + 1;
+        while (i < end && chars[i] != c) {
+            ++i;
+        }
+        bufpos = i - 1;
+    }
+
+    /**
+     * Returns to the ring once the characters that have been read ahead fit.
+     */
+    private void shrink() {
+        // the characters after the current position, backed up ones first
+        int last = (bufpos + inBuf + bufsize) % bufsize;
+        int pending = inBuf + maxNextCharInd - 1 - last;
+        if (pending > capacity) {
+            return;
+        }
+        char[] chars = new char[capacity];
+        int[] lines = trackLines ? new int[capacity] : null;
+        int[] columns = trackLines ? new int[capacity] : null;
+        for (int i = 0; i < pending; ++i) {
+            int from = (bufpos + 1 + i) % bufsize;
+            chars[i] = buffer[from];
+            if (trackLines) {
+                lines[i] = bufline[from];
+                columns[i] = bufcolumn[from];
+            }
+        }
+        buffer = chars;
+        bufline = lines;
+        bufcolumn = columns;
+        available = bufsize = capacity;
+        maxNextCharInd = pending;
+        bufpos = -1;
+        tokenBegin = 0;
+    }
+
+    private void copy(int from, char[] chars, int[] lines, int[] columns, int to, int length) {
+        System.arraycopy(buffer, from, chars, to, length);
+        if (trackLines) {
+            System.arraycopy(bufline, from, lines, to, length);
+            System.arraycopy(bufcolumn, from, columns, to, length);
+        }
+    }
+
+    @Override
+    protected void UpdateLineColumn(char c) {
+        if (trackLines) {
+            super.UpdateLineColumn(c);
+        }
+    }
+
+    @Override
+    public void adjustBeginLineColumn(int newLine, int newCol) {
+        if (trackLines) {
+            super.adjustBeginLineColumn(newLine, newCol);
+        }
+    }
+
+    @Override
+    public int getBeginLine() {
+        return trackLines ? super.getBeginLine() : 0;
+    }
+
+    @Override
+    public int getBeginColumn() {
+        return trackLines ? super.getBeginColumn() : 0;
+    }
+
+    @Override
+    public int getEndLine() {
+        return trackLines ? super.getEndLine() : 0;
+    }
+
+    @Override
+    public int getEndColumn() {
+        return trackLines ? super.getEndColumn() : 0;
+    }
+
+    @Override
+    @Deprecated
+    public int getLine() {
+        return getEndLine();
+    }
+
+    @Override
+    @Deprecated
+    public int getColumn() {
+        return getEndColumn();
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * Token whose text is kept in a {@link TextBuffer} instead of the image.
+ *
+ * The image is only set for tokens with a fixed literal value, the text of all
+ * other tokens is available through the position and length of the token.
+ */
+public class SpanToken extends Token {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The absolute position of the first character of this token.
+     */
+    public int position;
+
+    /**
+     * The number of characters of this token.
+     */
+    public int length;
+
+    public SpanToken(int kind, String image) {
+        super(kind, image);
+    }
+
+    /**
+     * @return the position after the last character of this token
+     */
+    public int end() {
+        return position + length;
+    }
+
+}
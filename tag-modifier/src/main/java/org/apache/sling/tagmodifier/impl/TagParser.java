@@ -24,9 +24,234 @@ public class TagParser implements TagParserConstants {
     return sb.toString();
   }
 
+  /** Elements whose content is text up to their end tag, as in BoundaryScanner */
+  private static final String[] RAW_TEXT = { "script", "style", "textarea" };
+
+  private int recoveries;
+  private boolean recovering;
+  private RecoveryListener recoveryListener;
+  private String rawText;
+  private String startTagRawText;
+
+  /** @return the number of constructs that could not be parsed and were returned as text */
+  public int getRecoveryCount() {
+    return recoveries;
+  }
+
+  /** @return the current size of the buffer of the character stream */
+  public int getBufferSize() {
+    return token_source.input_stream.bufsize;
+  }
+
+  /** @return how often the buffer of the character stream grew since it had the given size */
+  public int getBufferExpansions(int size) {
+    SimpleCharStream in = token_source.input_stream;
+    if (in instanceof RingCharStream) {
+      return ((RingCharStream) in).getExpansionCount();
+    }
+    // SimpleCharStream grows by 2048 characters at a time
+    return Math.max(0, (in.bufsize - size) / 2048);
+  }
+
+  /**
+   * Turns on recovery mode. Input the parser fails on is returned as text that
+   * extends to the next tag, so the document is always parsed to the end.
+   *
+   * @param listener told about every recovery, may be null
+   */
+  public void setRecovering(RecoveryListener listener) {
+    recovering = true;
+    recoveryListener = listener;
+  }
+
+  /**
+   * Returns the next element. The content of raw text elements such as script
+   * and style is returned as one text element, in recovery mode errors are
+   * returned as text.
+   *
+   * @return the next element
+   */
+  public Element nextElement() throws ParseException {
+    if (rawText != null && token.next == null) {
+      Token body = token_source.rawText(rawText);
+      rawText = null;
+      if (body != null) {
+        token.next = body;
+        token = body;
+        jj_ntk = -1;
+        return text(body);
+      }
+    }
+    startTagRawText = null;
+    Element element = recovering ? recoveringElement() : element();
+    rawText = element.getType() == ElementType.START_TAG ? startTagRawText : null;
+    return element;
+  }
+
+  /**
+   * Continues the content of a raw text element, for input that starts within
+   * the content of a script, style or textarea element.
+   *
+   * @param name name of the element
+   */
+  public void resumeRawText(String name) {
+    rawText = rawText(name);
+  }
+
+  /** @return the lower case name if the element contains raw text */
+  private static String rawText(String name) {
+    for (String element : RAW_TEXT) {
+      if (element.equalsIgnoreCase(name)) {
+        return element;
+      }
+    }
+    return null;
+  }
+
+  /** @return the lower case name if the start tag name token names an element that contains raw text */
+  private String rawText(Token name) {
+    for (String element : RAW_TEXT) {
+      if (isName(name, element)) {
+        return element;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Compares the text of a tag name token with a lower case name, ignoring
+   * case. Subclasses whose tokens carry no image compare their own text.
+   */
+  protected boolean isName(Token name, String lower) {
+    return lower.equalsIgnoreCase(name.image);
+  }
+
+  /**
+   * @return true if the end of tag token is {@code />}, a self-closing script,
+   *         style or textarea has no raw text content, as in BoundaryScanner
+   */
+  protected boolean isSelfClosing(Token end) {
+    return end.image.equals("/>");
+  }
+
+  private Element recoveringElement() throws ParseException {
+    Token start = token;
+    try {
+      return element();
+    } catch (ParseException e) {
+      return resync(start, false, e.getMessage());
+    } catch (TokenMgrError e) {
+      return resync(start, true, e.getMessage());
+    }
+  }
+
+  private Element recover(Token first, Token last) {
+    if (recovering && last.kind != EOF && getToken(1).kind == RAWTEXT) {
+      // the rest of the text up to the next tag
+      last = getNextToken();
+    }
+    return recovered(first, last, "Malformed tag");
+  }
+
+  /**
+   * Returns the tokens read since start and the text up to the next tag as
+   * text. After a lexical error the characters that could not be matched are
+   * read again as text.
+   */
+  private Element resync(Token start, boolean lexical, String reason) throws ParseException {
+    if (lexical) {
+      SimpleCharStream in = token_source.input_stream;
+      in.backup((in.bufpos - in.tokenBegin + 1 + in.bufsize) % in.bufsize);
+    }
+    token_source.SwitchTo(DEFAULT);
+    Token last = start;
+    while (last.next != null && last.next.kind != EOF) {
+      last = last.next;
+    }
+    if (last.next == null) {
+      Token next = token_source.getNextToken();
+      last.next = next;
+      if (next.kind == RAWTEXT) {
+        last = next;
+      }
+    }
+    jj_ntk = -1;
+    if (last == start) {
+      token = start;
+      return element();
+    }
+    token = last;
+    return recovered(start.next, last, reason);
+  }
+
+  private Element recovered(Token first, Token last, String reason) {
+    recoveries++;
+    Element text = text(first, last);
+    if (recoveryListener != null) {
+      recoveryListener.recovered(text, first.beginLine, first.beginColumn, reason);
+    }
+    return text;
+  }
+
+  /** @return the element for a start tag */
+  protected Element startTag(Token name, Map<String,AttrValue> attributes, Token end) {
+    return new StartTag(name.image, attributes, isSelfClosing(end));
+  }
+
+  /** @return the element for an end tag */
+  protected Element endTag(Token name) {
+    return new EndTag(name.image);
+  }
+
+  /** @return the element for a declaration */
+  protected Element declaration(Token tag, Map<String,AttrValue> attributes) {
+    return new StartTag(tag.image, attributes);
+  }
+
+  /** @return the element for a run of text */
+  protected Element text(Token text) {
+    return new TextData(text.image);
+  }
+
+  /** @return a text element holding the source of the tokens from first to last */
+  protected Element text(Token first, Token last) {
+    return new TextData(getTokenHtmlText(first, last));
+  }
+
+  /** @return the element for a comment, first and last are null for an empty comment */
+  protected Element comment(Token first, Token last) {
+    StringBuilder sb = new StringBuilder();
+    if (first != null) {
+      for (Token t = first; t != last.next; t = t.next) {
+        sb.append(t.image);
+      }
+    }
+    return new Comment(sb.toString());
+  }
+
+  /** @return the element that marks the end of the document */
+  protected Element endOfFile() {
+    return new EndOfFile();
+  }
+
+  /** @return the map the attributes of the next tag are collected in */
+  protected Map<String,AttrValue> attributeMap() {
+    return new HashMap<String,AttrValue>();
+  }
+
+  /** Adds an attribute, value is null for attributes without a value */
+  protected void addAttribute(Map<String,AttrValue> attributes, Token name, Token value) {
+    if (value == null) {
+      attributes.put(name.image, new AttrValue());
+    } else {
+      attributes.put(name.image, new AttrValue(value.image));
+    }
+  }
+
+
   final public Element element() throws ParseException {
   Element e;
-  Token text;
+  Token text, start;
     if (jj_2_1(2)) {
       e = tag();
                             {if (true) return e;}
@@ -47,18 +272,18 @@ public class TagParser implements TagParserConstants {
       default:
         jj_la1[0] = jj_gen;
         if (jj_2_2(2)) {
-          jj_consume_token(TAG_START);
+          start = jj_consume_token(TAG_START);
           text = jj_consume_token(LST_ERROR);
-              {if (true) return new TextData("<" + text.image);}
+              {if (true) return recover(start, text);}
         } else {
           switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
           case RAWTEXT:
             text = jj_consume_token(RAWTEXT);
-                             {if (true) return new TextData(text.image);}
+                             {if (true) return text(text);}
             break;
           case 0:
             jj_consume_token(0);
-              {if (true) return new EndOfFile();}
+              {if (true) return endOfFile();}
             break;
           default:
             jj_la1[1] = jj_gen;
@@ -96,15 +321,11 @@ public class TagParser implements TagParserConstants {
       jj_la1[3] = jj_gen;
       ;
     }
-     if (t2 == null) {
-        alist.put(t1.image,new AttrValue());
-      } else {
-        alist.put(t1.image,new AttrValue(t2.image));
-     }
+     addAttribute(alist, t1, t2);
   }
 
   final public Map<String,AttrValue> attributeList() throws ParseException {
-  Map<String,AttrValue> alist = new HashMap<String,AttrValue>();
+  Map<String,AttrValue> alist = attributeMap();
     label_1:
     while (true) {
       switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
@@ -130,11 +351,11 @@ public class TagParser implements TagParserConstants {
       t = jj_consume_token(TAG_NAME);
       alist = attributeList();
       et = jj_consume_token(END_OF_TAG);
-      {if (true) return new StartTag(t.image, alist, et.image.equals(">"));}
+      startTagRawText = isSelfClosing(et) ? null : rawText(t);
+      {if (true) return startTag(t, alist, et);}
     } catch (ParseException ex) {
     token_source.SwitchTo(DEFAULT);
-    String s = getTokenHtmlText(firstToken, getNextToken());
-    {if (true) return new TextData(s);}
+    {if (true) return recover(firstToken, getNextToken());}
     }
     throw new Error("Missing return statement in function");
   }
@@ -147,17 +368,16 @@ public class TagParser implements TagParserConstants {
       jj_consume_token(ENDTAG_START);
       t = jj_consume_token(TAG_NAME);
       jj_consume_token(END_OF_TAG);
-      {if (true) return new EndTag(t.image);}
+      {if (true) return endTag(t);}
     } catch (ParseException ex) {
     token_source.SwitchTo(DEFAULT);
-    String s = getTokenHtmlText(firstToken, getNextToken());
-    {if (true) return new TextData(s);}
+    {if (true) return recover(firstToken, getNextToken());}
     }
     throw new Error("Missing return statement in function");
   }
 
-  final public Comment commentHtmlElement() throws ParseException {
-  StringBuilder sb = new StringBuilder();
+  final public Element commentHtmlElement() throws ParseException {
+  Token first = null, last = null;
     jj_consume_token(COMMENT_START);
     label_2:
     while (true) {
@@ -170,7 +390,7 @@ public class TagParser implements TagParserConstants {
         break label_2;
       }
       jj_consume_token(COMMENT_WORD);
-                                     sb.append(token.image);
+                                     if (first == null) { first = token; } last = token;
     }
     switch ((jj_ntk==-1)?jj_ntk():jj_ntk) {
     case 0:
@@ -184,14 +404,14 @@ public class TagParser implements TagParserConstants {
       jj_consume_token(-1);
       throw new ParseException();
     }
-    {if (true) return new Comment(sb.toString());}
+    {if (true) return comment(first, last);}
     throw new Error("Missing return statement in function");
   }
 
 /** @return the start of a DECLARATION */
   final public Element decltag() throws ParseException {
   Token tok = null;
-  Map<String,AttrValue > alist = new HashMap<String,AttrValue>();
+  Map<String,AttrValue > alist = attributeMap();
   Token firstToken = getToken(1);
     try {
       jj_consume_token(DECL_START);
@@ -207,14 +427,13 @@ public class TagParser implements TagParserConstants {
           break label_3;
         }
         jj_consume_token(DECL_ATTR);
-                                                 alist.put(token.image,new AttrValue());
+                                                 addAttribute(alist, token, null);
       }
       jj_consume_token(DECL_END);
-      {if (true) return new StartTag(tok.image, alist);}
+      {if (true) return declaration(tok, alist);}
     } catch (ParseException ex) {
     token_source.SwitchTo(DEFAULT);
-    String s = getTokenHtmlText(firstToken, getNextToken());
-    {if (true) return new TextData(s);}
+    {if (true) return recover(firstToken, getNextToken());}
     }
     throw new Error("Missing return statement in function");
   }
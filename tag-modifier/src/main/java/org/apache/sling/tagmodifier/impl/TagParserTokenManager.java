@@ -12,6 +12,72 @@ public class TagParserTokenManager implements TagParserConstants
   public  java.io.PrintStream debugStream = System.out;
   /** Set debug output. */
   public  void setDebugStream(java.io.PrintStream ds) { debugStream = ds; }
+  /**
+   * Reads the content of a raw text element such as script or style up to its
+   * end tag as one RAWTEXT token, without running the lexer over every
+   * character.
+   *
+   * @param name lower case name of the element
+   * @return the token, null if the end tag or the end of the document follows
+   */
+  public Token rawText(String name) {
+    SimpleCharStream in = input_stream;
+    try {
+      curChar = in.BeginToken();
+    } catch (java.io.IOException e) {
+      return null;
+    }
+    char c = curChar;
+    for (;;) {
+      if (c == '<' && endTagFollows(name)) {
+        in.backup(1);
+        break;
+      }
+      if (in instanceof RingCharStream) {
+        ((RingCharStream) in).skipTo('<');
+      } else if (in instanceof CharSequenceCharStream) {
+        ((CharSequenceCharStream) in).skipTo('<');
+      }
+      try {
+        c = in.readChar();
+      } catch (java.io.IOException e) {
+        // the content extends to the end of the document
+        break;
+      }
+    }
+    if (in.bufpos == in.tokenBegin - 1 || in.bufpos == in.tokenBegin - 1 + in.bufsize) {
+      return null;
+    }
+    jjmatchedKind = RAWTEXT;
+    return jjFillToken();
+  }
+
+  /**
+   * Checks whether the characters after a {@code <} close the element, the
+   * characters are read again afterwards.
+   */
+  private boolean endTagFollows(String name) {
+    int read = 0;
+    boolean found = false;
+    try {
+      found = input_stream.readChar() == '/';
+      read++;
+      for (int i = 0; found && i < name.length(); ++i) {
+        char c = input_stream.readChar();
+        read++;
+        found = (c >= 'A' && c <= 'Z' ? (char) (c + 32) : c) == name.charAt(i);
+      }
+      if (found) {
+        char c = input_stream.readChar();
+        read++;
+        found = c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+      }
+    } catch (java.io.IOException e) {
+      found = false;
+    }
+    input_stream.backup(read);
+    return found;
+  }
 private final int jjStopStringLiteralDfa_6(int pos, long active0)
 {
    switch (pos)
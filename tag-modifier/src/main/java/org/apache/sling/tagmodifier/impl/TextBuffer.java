@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+import java.util.Arrays;
+
+/**
+ * Append only store for the text of the tokens of a document.
+ *
+ * Positions are absolute, counted from the start of the document, so they stay
+ * valid when the buffer drops text that is no longer referenced. Everything
+ * before the mark may be dropped the next time the buffer runs out of space.
+ */
+public class TextBuffer {
+
+    private char[] chars;
+    private int base;
+    private int end;
+    private int mark;
+
+    public TextBuffer() {
+        this(4096);
+    }
+
+    public TextBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    /**
+     * @return the absolute position the next appended character will have
+     */
+    public int position() {
+        return end;
+    }
+
+    /**
+     * Allows the text before the given position to be dropped.
+     */
+    public void mark(int position) {
+        if (position > mark) {
+            mark = Math.min(position, end);
+        }
+    }
+
+    public void append(char[] source, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(source, offset, chars, end - base, length);
+        end += length;
+    }
+
+    public char charAt(int position) {
+        return chars[position - base];
+    }
+
+    /**
+     * The backing array, only valid until the next append.
+     */
+    public char[] array() {
+        return chars;
+    }
+
+    /**
+     * @return the index in {@link #array()} of the absolute position
+     */
+    public int index(int position) {
+        return position - base;
+    }
+
+    public String toString(int position, int length) {
+        return new String(chars, position - base, length);
+    }
+
+    /**
+     * Compares text with a lower case name, upper case ASCII letters of the
+     * text match their lower case counterparts.
+     */
+    public boolean equalsLowerCase(int position, int length, String lower) {
+        if (length != lower.length()) {
+            return false;
+        }
+        int offset = position - base;
+        for (int i = 0; i < length; ++i) {
+            char c = chars[offset + i];
+            if ((c >= 'A' && c <= 'Z' ? (char) (c + 32) : c) != lower.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Discards all text and restarts positions at zero.
+     */
+    public void clear() {
+        base = end = mark = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        int used = end - base;
+        if (used + length <= chars.length) {
+            return;
+        }
+        int dead = mark - base;
+        if (dead > 0 && used - dead + length <= chars.length / 2) {
+            System.arraycopy(chars, dead, chars, 0, used - dead);
+            base = mark;
+            return;
+        }
+        char[] larger = new char[Math.max(chars.length * 2, used - dead + length)];
+        System.arraycopy(chars, dead, larger, 0, used - dead);
+        chars = larger;
+        base = mark;
+    }
+
+}
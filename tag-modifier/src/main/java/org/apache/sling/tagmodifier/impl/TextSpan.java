@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl;
+
+/**
+ * A reusable view of a range of a {@link TextBuffer}.
+ *
+ * The view is only valid as long as the range has not been dropped by the
+ * buffer, use {@link #toString()} to keep the characters.
+ */
+public class TextSpan implements CharSequence {
+
+    private final TextBuffer buffer;
+    private int position;
+    private int length;
+
+    public TextSpan(TextBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public TextSpan set(int position, int length) {
+        this.position = position;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return the array holding the characters of this span
+     */
+    public char[] array() {
+        return buffer.array();
+    }
+
+    /**
+     * @return the index of the first character of this span in {@link #array()}
+     */
+    public int offset() {
+        return buffer.index(position);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return buffer.charAt(position + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(start + " to " + end);
+        }
+        return new TextSpan(buffer).set(position + start, end - start);
+    }
+
+    /**
+     * Compares the characters of this span to the given text without creating a
+     * String.
+     */
+    public boolean contentEquals(CharSequence text) {
+        if (text.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buffer.charAt(position + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return buffer.toString(position, length);
+    }
+
+}
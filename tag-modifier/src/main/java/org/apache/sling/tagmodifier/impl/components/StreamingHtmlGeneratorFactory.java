@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl.components;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import org.apache.sling.rewriter.Generator;
+import org.apache.sling.rewriter.GeneratorFactory;
+import org.apache.sling.rewriter.ProcessingComponentConfiguration;
+import org.apache.sling.rewriter.ProcessingContext;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.consumer.HtmlSAXSupport;
+import org.apache.sling.tagmodifier.impl.IncrementalTagParser;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Component;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * HTML generator which parses the response while it is being written.
+ *
+ * Unlike the <code>html5-generator</code> the output is not buffered until the
+ * pipeline is finished, SAX events are sent to the next component as soon as
+ * enough of the page has been written.
+ */
+@Component(service = GeneratorFactory.class,
+    property = {
+            Constants.SERVICE_VENDOR + "=The Apache Software Foundation",
+            "pipeline.type=html5-streaming-generator"
+    })
+public class StreamingHtmlGeneratorFactory implements GeneratorFactory {
+
+    /**
+     * @see org.apache.sling.rewriter.GeneratorFactory#createGenerator()
+     */
+    @Override
+    public Generator createGenerator() {
+        return new StreamingHtmlGenerator();
+    }
+
+    public static final class StreamingHtmlGenerator implements Generator {
+
+        private final IncrementalTagParser parser;
+
+        private ContentHandler contentHandler;
+
+        private HtmlSAXSupport saxSupport;
+
+        public StreamingHtmlGenerator() {
+            this.parser = new IncrementalTagParser(this::emit);
+        }
+
+        private void emit(Element element) {
+            if (saxSupport == null) {
+                saxSupport = new HtmlSAXSupport(contentHandler, null);
+            }
+            saxSupport.accept(element);
+        }
+
+        /**
+         * @see org.apache.sling.rewriter.Generator#finished()
+         */
+        @Override
+        public void finished() throws IOException, SAXException {
+            parser.end();
+        }
+
+        /**
+         * @see org.apache.sling.rewriter.Generator#getWriter()
+         */
+        @Override
+        public PrintWriter getWriter() {
+            return new PrintWriter(new Writer() {
+
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    parser.write(cbuf, off, len);
+                }
+
+                @Override
+                public void flush() {
+                    parser.flush();
+                }
+
+                @Override
+                public void close() {
+                    // the document ends when the pipeline is finished
+                }
+            });
+        }
+
+        @Override
+        public void init(ProcessingContext context,
+                         ProcessingComponentConfiguration config)
+        throws IOException {
+            // nothing to do
+        }
+
+        /**
+         * @see org.apache.sling.rewriter.Generator#setContentHandler(org.xml.sax.ContentHandler)
+         */
+        @Override
+        public void setContentHandler(ContentHandler handler) {
+            this.contentHandler = handler;
+        }
+
+        /**
+         * @see org.apache.sling.rewriter.Generator#dispose()
+         */
+        @Override
+        public void dispose() {
+            // nothing to do
+        }
+    }
+}
@@ -20,12 +20,25 @@ package org.apache.sling.tagmodifier.impl.components;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 import org.apache.sling.commons.html.HtmlParser;
+import org.apache.sling.tagmodifier.ParseStatistics;
 import org.apache.sling.tagmodifier.Tag;
+import org.apache.sling.tagmodifier.TagIterator;
+import org.apache.sling.tagmodifier.TagMetrics;
 import org.apache.sling.tagmodifier.consumer.HtmlSAXSupport;
 import org.apache.sling.tagmodifier.util.DOMBuilder;
+import org.apache.sling.tagmodifier.util.SlowDocumentLogger;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -39,14 +52,73 @@ import org.xml.sax.SAXException;
 )
 public class TagHtmlParser implements HtmlParser {
 
+    private static final Logger LOG = LoggerFactory.getLogger(TagHtmlParser.class);
 
+    /**
+     * Thresholds from which documents are logged with their statistics, 0
+     * turns a threshold off, and whether malformed input is parsed in recovery
+     * mode.
+     */
+    public @interface Config {
+
+        long slowDocumentMillis() default 0;
+
+        long slowDocumentBytes() default 0;
+
+        boolean recoveryMode() default false;
+
+    }
+
+    @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile List<TagMetrics> metrics;
+
+    private volatile SlowDocumentLogger slowDocuments;
+
+    private volatile boolean recoveryMode;
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        slowDocuments = config.slowDocumentMillis() > 0 || config.slowDocumentBytes() > 0
+                ? new SlowDocumentLogger(config.slowDocumentMillis(), config.slowDocumentBytes())
+                : null;
+        recoveryMode = config.recoveryMode();
+    }
+
+    /**
+     * In recovery mode parses malformed input as text instead of dropping the
+     * rest of the document, and measures the document only if someone is
+     * interested in the statistics.
+     */
+    private TagIterator prepare(TagIterator iterator) {
+        if (recoveryMode) {
+            iterator.recovering((text, line, column, reason) -> LOG.debug(
+                    "Malformed HTML at {}:{} returned as text: {}", line, column, reason));
+        }
+        List<TagMetrics> current = metrics;
+        SlowDocumentLogger logger = slowDocuments;
+        if ((current == null || current.isEmpty()) && logger == null) {
+            return iterator;
+        }
+        return iterator.measure((ParseStatistics statistics) -> {
+            if (logger != null) {
+                logger.parsed(statistics);
+            }
+            if (current != null) {
+                current.forEach(service -> service.parsed(statistics));
+            }
+        });
+    }
 
     /**
      * @see org.apache.sling.commons.html.HtmlParser#parse(java.io.InputStream, java.lang.String, org.xml.sax.ContentHandler)
      */
     @Override
     public void parse(final InputStream stream, final String encoding, final ContentHandler contentHandler) throws SAXException {
-        Tag.stream(stream,encoding).forEach(new HtmlSAXSupport(contentHandler, null));
+        // the elements are not kept, the SAX events are created from the shared
+        // buffers of the cursor mode
+        prepare(TagIterator.cursor(stream, encoding)).forEachRemaining(new HtmlSAXSupport(contentHandler, null));
     }
 
     /**
@@ -55,7 +127,7 @@ public class TagHtmlParser implements HtmlParser {
     @Override
     public Document parse(String systemId, InputStream stream, String encoding) throws IOException {
         final DOMBuilder builder = new DOMBuilder();
-        Tag.stream(stream, encoding).forEach(new HtmlSAXSupport(builder, builder));
+        Tag.stream(prepare(new TagIterator(stream, encoding))).forEach(new HtmlSAXSupport(builder, builder));
         return builder.getDocument();
     }
 
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl.tag;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.sling.tagmodifier.AttrValue;
+
+/**
+ * Map of the attributes of a tag, kept in two arrays in source order.
+ *
+ * Tags rarely have more than a handful of attributes, for those a linear scan
+ * is faster than hashing and needs no entry objects.
+ */
+public class AttributeMap extends AbstractMap<String, AttrValue> {
+
+    private String[] names;
+    private AttrValue[] values;
+    private int size;
+    // set by changes through the map, values are compared with the parsed ones
+    private boolean modified;
+    private String[] parsed;
+
+    public AttributeMap() {
+        this(4);
+    }
+
+    public AttributeMap(int capacity) {
+        names = new String[capacity];
+        values = new AttrValue[capacity];
+    }
+
+    /**
+     * Parses the attributes of a tag as they were written between the tag name
+     * and the end of the tag. The source is expected to have been accepted by
+     * the parser, a later attribute of the same name replaces an earlier one.
+     *
+     * @param source attribute source
+     * @return the attributes
+     */
+    public static AttributeMap parse(String source) {
+        AttributeMap attributes = new AttributeMap();
+        int length = source.length();
+        int i = skipSpace(source, 0);
+        while (i < length) {
+            int start = i;
+            while (i < length && !isSpace(source.charAt(i)) && source.charAt(i) != '=') {
+                ++i;
+            }
+            String name = source.substring(start, i);
+            i = skipSpace(source, i);
+            if (i == length || source.charAt(i) != '=') {
+                attributes.put(name, new AttrValue());
+                continue;
+            }
+            i = skipSpace(source, i + 1);
+            char c = source.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = source.indexOf(c, i + 1);
+                attributes.put(name, new AttrValue(source.substring(i + 1, end)));
+                i = end + 1;
+            } else {
+                start = i;
+                while (i < length && isValueChar(source.charAt(i))) {
+                    ++i;
+                }
+                attributes.put(name, new AttrValue(source.substring(start, i)));
+            }
+            i = skipSpace(source, i);
+        }
+        attributes.parsed = new String[attributes.size];
+        for (int j = 0; j < attributes.size; ++j) {
+            attributes.parsed[j] = attributes.values[j].getValue();
+        }
+        attributes.modified = false;
+        return attributes;
+    }
+
+    /**
+     * Tells whether the attributes have been changed since they were parsed,
+     * through the map or by setting the value of an {@link AttrValue}.
+     *
+     * @return true if the attributes differ from the parsed source or the map
+     *         was not created by {@link #parse(String)}
+     */
+    public boolean isModified() {
+        if (modified || parsed == null) {
+            return true;
+        }
+        for (int i = 0; i < size; ++i) {
+            // AttrValue.setValue replaces the String, identity tells a change
+            if (values[i].getValue() != parsed[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipSpace(String source, int index) {
+        while (index < source.length() && isSpace(source.charAt(index))) {
+            ++index;
+        }
+        return index;
+    }
+
+    // as the ATTR_VAL token of the grammar
+    private static boolean isValueChar(char c) {
+        return c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '"' && c != '\'' && c != '>';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public AttrValue get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public AttrValue put(String key, AttrValue value) {
+        modified = true;
+        int index = indexOf(key);
+        if (index >= 0) {
+            AttrValue previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        names[size] = key;
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public AttrValue remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        AttrValue previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        modified = true;
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, AttrValue>> entrySet() {
+        return new AbstractSet<Entry<String, AttrValue>>() {
+
+            @Override
+            public Iterator<Entry<String, AttrValue>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; ++i) {
+            if (names[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        modified = true;
+        System.arraycopy(names, index + 1, names, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        names[size] = null;
+        values[size] = null;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, AttrValue>> {
+
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, AttrValue> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry<String, AttrValue>() {
+
+                private final int index = last;
+
+                @Override
+                public String getKey() {
+                    return names[index];
+                }
+
+                @Override
+                public AttrValue getValue() {
+                    return values[index];
+                }
+
+                @Override
+                public AttrValue setValue(AttrValue value) {
+                    modified = true;
+                    AttrValue previous = values[index];
+                    values[index] = value;
+                    return previous;
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.impl.tag;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.CursorElement;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.ElementType;
+import org.apache.sling.tagmodifier.impl.NameTable;
+import org.apache.sling.tagmodifier.impl.TextBuffer;
+import org.apache.sling.tagmodifier.impl.TextSpan;
+
+/**
+ * Mutable element used in cursor mode, the value and attributes are ranges of
+ * the {@link TextBuffer} of the parser.
+ *
+ * Strings and the attribute map are only created when they are asked for, tag
+ * and attribute names are taken from the {@link NameTable} of the parser.
+ */
+public class ReusableElement implements CursorElement {
+
+    private static final int NAME_POSITION = 0;
+    private static final int NAME_LENGTH = 1;
+    private static final int VALUE_POSITION = 2;
+    private static final int VALUE_LENGTH = 3;
+    private static final int SLOTS = 4;
+
+    private final ElementType type;
+    private final TextBuffer text;
+    private final NameTable nameTable;
+    private final TextSpan value;
+
+    private int valuePosition;
+    private int valueLength;
+    private boolean selfClosing;
+
+    private int[] attributes = new int[8 * SLOTS];
+    private int attributeCount;
+    private TextSpan[] values = new TextSpan[0];
+
+    private String stringValue;
+    private Map<String, AttrValue> attributeMap;
+
+    public ReusableElement(ElementType type, TextBuffer text, NameTable nameTable) {
+        this.type = type;
+        this.text = text;
+        this.nameTable = nameTable;
+        this.value = new TextSpan(text);
+    }
+
+    /**
+     * Starts a new element, clearing the attributes.
+     */
+    public ReusableElement reset(int position, int length) {
+        valuePosition = position;
+        valueLength = length;
+        value.set(position, length);
+        selfClosing = false;
+        attributeCount = 0;
+        stringValue = null;
+        attributeMap = null;
+        return this;
+    }
+
+    /**
+     * Replaces the value, the attributes are kept.
+     */
+    public ReusableElement setValue(int position, int length) {
+        valuePosition = position;
+        valueLength = length;
+        value.set(position, length);
+        stringValue = null;
+        return this;
+    }
+
+    public void setSelfClosing(boolean selfClosing) {
+        this.selfClosing = selfClosing;
+    }
+
+    public boolean getSelfClosing() {
+        return selfClosing;
+    }
+
+    /**
+     * Adds an attribute, valueLength is -1 for an attribute without a value.
+     */
+    public void addAttribute(int namePosition, int nameLength, int valuePosition, int valueLength) {
+        int slot = attributeCount * SLOTS;
+        if (slot + SLOTS > attributes.length) {
+            attributes = Arrays.copyOf(attributes, attributes.length * 2);
+        }
+        attributes[slot + NAME_POSITION] = namePosition;
+        attributes[slot + NAME_LENGTH] = nameLength;
+        attributes[slot + VALUE_POSITION] = valuePosition;
+        attributes[slot + VALUE_LENGTH] = valueLength;
+        attributeCount++;
+        attributeMap = null;
+    }
+
+    public void clearAttributes() {
+        attributeCount = 0;
+        attributeMap = null;
+    }
+
+    @Override
+    public ElementType getType() {
+        return type;
+    }
+
+    @Override
+    public boolean supportsAttributes() {
+        return type == ElementType.START_TAG;
+    }
+
+    @Override
+    public String getValue() {
+        if (type == ElementType.EOF) {
+            return "EOF";
+        }
+        if (stringValue == null) {
+            if (type == ElementType.START_TAG || type == ElementType.END_TAG) {
+                stringValue = name(valuePosition, valueLength);
+            } else {
+                stringValue = text.toString(valuePosition, valueLength);
+            }
+        }
+        return stringValue;
+    }
+
+    @Override
+    public CharSequence getValueSequence() {
+        return value;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * Names are returned as the canonical String of the name table, which is
+     * only created the first time a name is seen.
+     */
+    @Override
+    public CharSequence getAttributeName(int index) {
+        checkIndex(index);
+        int slot = index * SLOTS;
+        return name(attributes[slot + NAME_POSITION], attributes[slot + NAME_LENGTH]);
+    }
+
+    @Override
+    public CharSequence getAttributeValue(int index) {
+        checkIndex(index);
+        int slot = index * SLOTS;
+        if (attributes[slot + VALUE_LENGTH] < 0) {
+            return null;
+        }
+        if (values.length <= index) {
+            values = grow(values, index);
+        }
+        return values[index].set(attributes[slot + VALUE_POSITION], attributes[slot + VALUE_LENGTH]);
+    }
+
+    @Override
+    public Map<String, AttrValue> getAttributes() {
+        if (!supportsAttributes()) {
+            return Collections.emptyMap();
+        }
+        if (attributeMap == null) {
+            attributeMap = new HashMap<>();
+            for (int i = 0; i < attributeCount; ++i) {
+                int slot = i * SLOTS;
+                String name = name(attributes[slot + NAME_POSITION], attributes[slot + NAME_LENGTH]);
+                if (attributes[slot + VALUE_LENGTH] < 0) {
+                    attributeMap.put(name, new AttrValue());
+                } else {
+                    attributeMap.put(name,
+                            new AttrValue(text.toString(attributes[slot + VALUE_POSITION], attributes[slot + VALUE_LENGTH])));
+                }
+            }
+        }
+        return attributeMap;
+    }
+
+    @Override
+    public boolean hasAttributes() {
+        if (attributeMap != null) {
+            return !attributeMap.isEmpty();
+        }
+        return supportsAttributes() && attributeCount > 0;
+    }
+
+    @Override
+    public boolean containsAttribute(String attrName) {
+        if (attributeMap != null) {
+            return attributeMap.containsKey(attrName);
+        }
+        return indexOf(attrName) >= 0;
+    }
+
+    @Override
+    public String getAttributeValue(String name) {
+        if (attributeMap != null) {
+            AttrValue attrValue = attributeMap.get(name);
+            return attrValue == null ? null : attrValue.toString();
+        }
+        int index = indexOf(name);
+        if (index < 0) {
+            return null;
+        }
+        CharSequence attrValue = getAttributeValue(index);
+        return attrValue == null ? null : attrValue.toString();
+    }
+
+    @Override
+    public Element copy() {
+        switch (type) {
+        case START_TAG:
+            Map<String, AttrValue> copied = new HashMap<>();
+            for (Map.Entry<String, AttrValue> entry : getAttributes().entrySet()) {
+                AttrValue attrValue = entry.getValue();
+                copied.put(entry.getKey(), attrValue.isEmpty() ? new AttrValue() : new AttrValue(attrValue.getValue()));
+            }
+            return new StartTag(getValue(), copied, selfClosing);
+        case END_TAG:
+            return new EndTag(getValue());
+        case COMMENT:
+            return new Comment(getValue());
+        case TEXT:
+            return new TextData(getValue());
+        default:
+            return new EndOfFile();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getValue();
+    }
+
+    private String name(int position, int length) {
+        return nameTable.intern(text.array(), text.index(position), length);
+    }
+
+    private int indexOf(String name) {
+        // the last occurrence wins, like it does for the attribute map
+        for (int i = attributeCount - 1; i >= 0; --i) {
+            int slot = i * SLOTS;
+            int length = attributes[slot + NAME_LENGTH];
+            if (length == name.length()) {
+                int position = attributes[slot + NAME_POSITION];
+                int c = 0;
+                while (c < length && text.charAt(position + c) == name.charAt(c)) {
+                    ++c;
+                }
+                if (c == length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= attributeCount) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+    }
+
+    private TextSpan[] grow(TextSpan[] spans, int index) {
+        TextSpan[] larger = Arrays.copyOf(spans, Math.max(attributeCount, index + 1));
+        for (int i = spans.length; i < larger.length; ++i) {
+            larger[i] = new TextSpan(text);
+        }
+        return larger;
+    }
+
+}
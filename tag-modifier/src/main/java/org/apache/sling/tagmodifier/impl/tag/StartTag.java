@@ -25,6 +25,8 @@ public class StartTag implements Element {
     private String value;
     private Map<String, AttrValue> attributes = Collections.emptyMap();
     private boolean selfClosing;
+    // attributes as written in the source, parsed when they are first asked for
+    private String attributeSource;
 
     public StartTag(String value, Map<String, AttrValue> attrList) {
         this(value,attrList,false);
@@ -36,6 +38,22 @@ public class StartTag implements Element {
         attributes = attrList;
     }
 
+    /**
+     * Creates a start tag that keeps the source of its attributes and only
+     * parses them when they are accessed.
+     * 
+     * @param value           tag name
+     * @param attributeSource everything between the tag name and the end of the
+     *                        tag, as accepted by the parser
+     * @param selfClosing     whether the tag ended with /&gt;
+     * @return the start tag
+     */
+    public static StartTag lazy(String value, String attributeSource, boolean selfClosing) {
+        StartTag tag = new StartTag(value, null, selfClosing);
+        tag.attributeSource = attributeSource;
+        return tag;
+    }
+
     @Override
     public ElementType getType() {
         return ElementType.START_TAG;
@@ -57,6 +75,45 @@ public class StartTag implements Element {
 
     @Override
     public Map<String, AttrValue> getAttributes() {
+        if (attributes == null) {
+            attributes = AttributeMap.parse(attributeSource);
+        }
         return attributes;
     }
+
+    @Override
+    public boolean hasAttributes() {
+        if (attributes == null) {
+            // the parser accepted the source, anything but space is an attribute
+            for (int i = 0; i < attributeSource.length(); ++i) {
+                if (attributeSource.charAt(i) > ' ') {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return !attributes.isEmpty();
+    }
+
+    /**
+     * Tags created with {@link #lazy} know whether their attributes have been
+     * changed, all others are treated as modified.
+     */
+    @Override
+    public boolean isModified() {
+        if (attributeSource == null) {
+            return true;
+        }
+        return attributes != null && ((AttributeMap) attributes).isModified();
+    }
+
+    /**
+     * The attributes exactly as they were written, for tags that are written out
+     * unchanged.
+     * 
+     * @return the source of the attributes or null if the tag has been modified
+     */
+    public String getAttributeSource() {
+        return isModified() ? null : attributeSource;
+    }
 }
\ No newline at end of file
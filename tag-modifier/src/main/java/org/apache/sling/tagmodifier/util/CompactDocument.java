@@ -0,0 +1,600 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.CursorElement;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.ElementType;
+import org.apache.sling.tagmodifier.impl.NameTable;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * A compact, read only tree of a document.
+ *
+ * Nodes are identified by an int, in document order, with node 0 being the
+ * document itself. The links between the nodes are kept in parallel int
+ * arrays, tag names, attributes, text and comments in a single char array,
+ * so a page is held in a handful of arrays instead of an object per node.
+ *
+ * The tree is built from the elements of {@link org.apache.sling.tagmodifier.Tag#stream}
+ * the way HTML is usually nested: void elements and self closing tags have no
+ * children, an end tag closes the innermost open element of the same name and
+ * end tags without an open element are dropped. {@link #toHtml(Appendable)}
+ * writes the elements as they were parsed, a W3C {@link Document} is only
+ * created when {@link #toDocument()} is called.
+ */
+public final class CompactDocument {
+
+    /**
+     * The document node
+     */
+    public static final int ROOT = 0;
+
+    private static final byte DOCUMENT = 0;
+    private static final byte ELEMENT = 1;
+    private static final byte TEXT = 2;
+    private static final byte COMMENT = 3;
+    private static final byte DOCTYPE = 4;
+
+    private final NameTable names = NameTable.create();
+
+    private int size;
+    private byte[] kind = new byte[64];
+    private boolean[] closed = new boolean[64];
+    private int[] parent = new int[64];
+    private int[] firstChild = new int[64];
+    private int[] lastChild = new int[64];
+    private int[] nextSibling = new int[64];
+    // name of an element or content of a text and comment node
+    private int[] valueStart = new int[64];
+    private int[] valueLength = new int[64];
+    private int[] attributeStart = new int[64];
+    private int[] attributeCount = new int[64];
+
+    // four ints per attribute: name start, name length, value start, value
+    // length or -1 for an attribute without a value
+    private int[] attributes = new int[256];
+    private int attributesSize;
+
+    private char[] chars = new char[1024];
+    private int charsSize;
+
+    private CompactDocument() {
+        add(DOCUMENT, -1);
+        closed[ROOT] = true;
+    }
+
+    /**
+     * Builds the tree of the elements.
+     *
+     * @param elements of a document
+     * @return the tree
+     */
+    public static CompactDocument build(Stream<Element> elements) {
+        Builder builder = builder();
+        elements.forEach(builder);
+        return builder.build();
+    }
+
+    /**
+     * A builder to pass the elements of a document to, for example from a
+     * {@link org.apache.sling.tagmodifier.TagPushParser}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder implements Consumer<Element> {
+
+        private final CompactDocument document = new CompactDocument();
+        private int current = ROOT;
+
+        private Builder() {
+        }
+
+        @Override
+        public void accept(Element element) {
+            current = document.append(current, element);
+        }
+
+        public CompactDocument build() {
+            return document;
+        }
+    }
+
+    /**
+     * @return the number of nodes including the document node
+     */
+    public int size() {
+        return size;
+    }
+
+    public ElementType getType(int node) {
+        switch (kind[node]) {
+        case ELEMENT:
+            return ElementType.START_TAG;
+        case TEXT:
+            return ElementType.TEXT;
+        case COMMENT:
+            return ElementType.COMMENT;
+        case DOCTYPE:
+            return ElementType.DOCTYPE;
+        default:
+            return ElementType.EOF;
+        }
+    }
+
+    public boolean isElement(int node) {
+        return kind[node] == ELEMENT;
+    }
+
+    /**
+     * @return the parent of the node or -1 for the document node
+     */
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * @return the first child of the node or -1
+     */
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    /**
+     * @return the next sibling of the node or -1
+     */
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @return the tag name of an element as it was written, null for other nodes
+     */
+    public String getName(int node) {
+        if (kind[node] != ELEMENT) {
+            return null;
+        }
+        return names.intern(chars, valueStart[node], valueLength[node]);
+    }
+
+    /**
+     * @return the content of a text, comment or doctype node, null for other
+     *         nodes
+     */
+    public String getText(int node) {
+        if (kind[node] == ELEMENT || kind[node] == DOCUMENT) {
+            return null;
+        }
+        return new String(chars, valueStart[node], valueLength[node]);
+    }
+
+    /**
+     * @return the number of attributes of an element as they were written
+     */
+    public int getAttributeCount(int node) {
+        return attributeCount[node];
+    }
+
+    public String getAttributeName(int node, int index) {
+        int slot = slot(node, index);
+        return names.intern(chars, attributes[slot], attributes[slot + 1]);
+    }
+
+    /**
+     * @return the value or null for an attribute without a value
+     */
+    public String getAttributeValue(int node, int index) {
+        int slot = slot(node, index);
+        return attributes[slot + 3] < 0 ? null : new String(chars, attributes[slot + 2], attributes[slot + 3]);
+    }
+
+    /**
+     * @return the value of the last attribute of the name, an empty String for an
+     *         attribute without a value or null if the element does not have it
+     */
+    public String getAttributeValue(int node, String name) {
+        int index = indexOf(node, name);
+        if (index < 0) {
+            return null;
+        }
+        String value = getAttributeValue(node, index);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @param selector a CSS selector, see {@link Selector}
+     * @return the matching elements in document order
+     */
+    public int[] select(String selector) {
+        return select(Selector.parse(selector));
+    }
+
+    public int[] select(Selector selector) {
+        Selector.Tree tree = tree();
+        int[] result = new int[16];
+        int count = 0;
+        for (int node = ROOT + 1; node < size; ++node) {
+            if (kind[node] == ELEMENT && selector.matches(tree, node)) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = node;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the first matching element in document order or -1
+     */
+    public int selectFirst(String selector) {
+        Selector parsed = Selector.parse(selector);
+        Selector.Tree tree = tree();
+        for (int node = ROOT + 1; node < size; ++node) {
+            if (kind[node] == ELEMENT && parsed.matches(tree, node)) {
+                return node;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the document as HTML.
+     */
+    public void toHtml(Appendable out) throws IOException {
+        toHtml(ROOT, out);
+    }
+
+    /**
+     * Writes a node and its descendants as HTML. Attribute values are always
+     * enclosed in double quotes.
+     */
+    public void toHtml(int node, Appendable out) throws IOException {
+        write(node, out, CharBuffer.wrap(chars, 0, charsSize));
+    }
+
+    /**
+     * @return the document as HTML
+     */
+    @Override
+    public String toString() {
+        StringBuilder html = new StringBuilder(charsSize + size * 8);
+        try {
+            toHtml(html);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Creates a W3C DOM of the tree. Elements and attributes whose names are not
+     * valid XML names are left out, the children of such an element are added
+     * to its parent.
+     *
+     * @return a new document
+     */
+    public Document toDocument() {
+        Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        append(document, document, ROOT);
+        return document;
+    }
+
+    private void append(Document document, Node target, int node) {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            switch (kind[child]) {
+            case ELEMENT:
+                org.w3c.dom.Element element;
+                try {
+                    element = document.createElement(getName(child));
+                } catch (DOMException e) {
+                    append(document, target, child);
+                    break;
+                }
+                for (int i = 0; i < attributeCount[child]; ++i) {
+                    String value = getAttributeValue(child, i);
+                    try {
+                        element.setAttribute(getAttributeName(child, i), value == null ? "" : value);
+                    } catch (DOMException e) {
+                        // not a valid attribute name
+                    }
+                }
+                appendChild(document, target, element);
+                append(document, element, child);
+                break;
+            case TEXT:
+                appendChild(document, target, document.createTextNode(getText(child)));
+                break;
+            case COMMENT:
+                appendChild(document, target, document.createComment(getText(child)));
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private static void appendChild(Document document, Node target, Node child) {
+        // a document takes a single element and no text
+        if (target == document && (child.getNodeType() == Node.TEXT_NODE
+                || child.getNodeType() == Node.ELEMENT_NODE && document.getDocumentElement() != null)) {
+            return;
+        }
+        target.appendChild(child);
+    }
+
+    private void write(int node, Appendable out, CharBuffer text) throws IOException {
+        switch (kind[node]) {
+        case ELEMENT:
+            out.append('<');
+            append(out, text, valueStart[node], valueLength[node]);
+            for (int i = 0; i < attributeCount[node]; ++i) {
+                int slot = slot(node, i);
+                out.append(' ');
+                append(out, text, attributes[slot], attributes[slot + 1]);
+                if (attributes[slot + 3] >= 0) {
+                    out.append("=\"");
+                    appendQuoted(out, text, attributes[slot + 2], attributes[slot + 3]);
+                    out.append('"');
+                }
+            }
+            out.append('>');
+            writeChildren(node, out, text);
+            if (closed[node]) {
+                out.append("</");
+                append(out, text, valueStart[node], valueLength[node]);
+                out.append('>');
+            }
+            break;
+        case TEXT:
+            append(out, text, valueStart[node], valueLength[node]);
+            break;
+        case COMMENT:
+            out.append("<!--");
+            append(out, text, valueStart[node], valueLength[node]);
+            out.append("-->");
+            break;
+        case DOCTYPE:
+            out.append("<!");
+            append(out, text, valueStart[node], valueLength[node]);
+            out.append('>');
+            break;
+        default:
+            writeChildren(node, out, text);
+            break;
+        }
+    }
+
+    private void writeChildren(int node, Appendable out, CharBuffer text) throws IOException {
+        for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+            write(child, out, text);
+        }
+    }
+
+    private static void append(Appendable out, CharBuffer text, int start, int length) throws IOException {
+        out.append(text, start, start + length);
+    }
+
+    private void appendQuoted(Appendable out, CharBuffer text, int start, int length) throws IOException {
+        int from = start;
+        for (int i = start, end = start + length; i < end; ++i) {
+            if (chars[i] == '"') {
+                out.append(text, from, i);
+                out.append("&quot;");
+                from = i + 1;
+            }
+        }
+        out.append(text, from, start + length);
+    }
+
+    /**
+     * Adds the element to the tree.
+     *
+     * @return the open element after the element
+     */
+    private int append(int current, Element element) {
+        switch (element.getType()) {
+        case START_TAG:
+            int node = add(ELEMENT, current);
+            CharSequence tagName = value(element);
+            setValue(node, tagName);
+            attributeStart[node] = attributesSize;
+            if (element instanceof CursorElement) {
+                CursorElement cursor = (CursorElement) element;
+                for (int i = 0; i < cursor.getAttributeCount(); ++i) {
+                    addAttribute(cursor.getAttributeName(i), cursor.getAttributeValue(i));
+                }
+                attributeCount[node] = cursor.getAttributeCount();
+            } else {
+                for (Map.Entry<String, AttrValue> entry : element.getAttributes().entrySet()) {
+                    addAttribute(entry.getKey(), entry.getValue().isEmpty() ? null : entry.getValue().getValue());
+                    attributeCount[node]++;
+                }
+            }
+            return VoidElements.opensElement(element, tagName) ? node : current;
+        case END_TAG:
+            CharSequence name = value(element);
+            for (int open = current; open > ROOT; open = parent[open]) {
+                if (nameEquals(open, name)) {
+                    closed[open] = true;
+                    return parent[open];
+                }
+            }
+            return current;
+        case TEXT:
+            setValue(add(TEXT, current), value(element));
+            return current;
+        case COMMENT:
+            setValue(add(COMMENT, current), value(element));
+            return current;
+        case DOCTYPE:
+            setValue(add(DOCTYPE, current), value(element));
+            return current;
+        default:
+            return current;
+        }
+    }
+
+    private static CharSequence value(Element element) {
+        if (element instanceof CursorElement) {
+            return ((CursorElement) element).getValueSequence();
+        }
+        return element.getValue();
+    }
+
+    private int add(byte type, int parentNode) {
+        if (size == kind.length) {
+            int capacity = size * 2;
+            kind = Arrays.copyOf(kind, capacity);
+            closed = Arrays.copyOf(closed, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            lastChild = Arrays.copyOf(lastChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            valueStart = Arrays.copyOf(valueStart, capacity);
+            valueLength = Arrays.copyOf(valueLength, capacity);
+            attributeStart = Arrays.copyOf(attributeStart, capacity);
+            attributeCount = Arrays.copyOf(attributeCount, capacity);
+        }
+        int node = size++;
+        kind[node] = type;
+        parent[node] = parentNode;
+        firstChild[node] = -1;
+        lastChild[node] = -1;
+        nextSibling[node] = -1;
+        if (parentNode >= 0) {
+            if (lastChild[parentNode] < 0) {
+                firstChild[parentNode] = node;
+            } else {
+                nextSibling[lastChild[parentNode]] = node;
+            }
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    private void setValue(int node, CharSequence value) {
+        valueStart[node] = charsSize;
+        valueLength[node] = value.length();
+        appendChars(value);
+    }
+
+    private void addAttribute(CharSequence name, CharSequence value) {
+        if (attributesSize + 4 > attributes.length) {
+            attributes = Arrays.copyOf(attributes, attributes.length * 2);
+        }
+        attributes[attributesSize] = charsSize;
+        attributes[attributesSize + 1] = name.length();
+        appendChars(name);
+        attributes[attributesSize + 2] = charsSize;
+        attributes[attributesSize + 3] = value == null ? -1 : value.length();
+        if (value != null) {
+            appendChars(value);
+        }
+        attributesSize += 4;
+    }
+
+    private void appendChars(CharSequence value) {
+        int length = value.length();
+        if (charsSize + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsSize + length));
+        }
+        if (value instanceof String) {
+            ((String) value).getChars(0, length, chars, charsSize);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                chars[charsSize + i] = value.charAt(i);
+            }
+        }
+        charsSize += length;
+    }
+
+    private int slot(int node, int index) {
+        if (index < 0 || index >= attributeCount[node]) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return attributeStart[node] + index * 4;
+    }
+
+    private int indexOf(int node, String name) {
+        for (int i = attributeCount[node] - 1; i >= 0; --i) {
+            int slot = attributeStart[node] + i * 4;
+            if (regionEquals(attributes[slot], attributes[slot + 1], name, false)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int node, CharSequence name) {
+        return regionEquals(valueStart[node], valueLength[node], name, true);
+    }
+
+    private boolean regionEquals(int start, int length, CharSequence text, boolean ignoreCase) {
+        if (length != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            char a = chars[start + i];
+            char b = text.charAt(i);
+            if (a != b && (!ignoreCase || Character.toLowerCase(a) != Character.toLowerCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Selector.Tree tree() {
+        return new Selector.Tree() {
+
+            @Override
+            public int parent(int node) {
+                int parentNode = parent[node];
+                return parentNode > ROOT ? parentNode : -1;
+            }
+
+            @Override
+            public boolean nameEquals(int node, String name) {
+                return CompactDocument.this.nameEquals(node, name);
+            }
+
+            @Override
+            public String attribute(int node, String name) {
+                return getAttributeValue(node, name);
+            }
+        };
+    }
+
+}
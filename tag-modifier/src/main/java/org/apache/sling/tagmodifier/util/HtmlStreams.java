@@ -13,8 +13,8 @@
  */
 package org.apache.sling.tagmodifier.util;
 
+import java.util.Map;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import org.apache.sling.tagmodifier.AttrValue;
 import org.apache.sling.tagmodifier.Element;
@@ -49,18 +49,23 @@ public class HtmlStreams {
             sb.append('<');
             sb.append(element.getValue());
             StartTag tag = (StartTag) element;
+            String source = tag.getAttributeSource();
+            if (source != null) {
+                // unchanged tags are written as they were read
+                sb.append(source);
+                sb.append(tag.getSelfClosing() ? "/>" : ">");
+                break;
+            }
             if (tag.hasAttributes()) {
-                sb.append(' ');
-                sb.append(tag.getAttributes().entrySet().stream().map(entry -> {
-                    StringBuilder sb2 = new StringBuilder();
-                    sb2.append(entry.getKey());
+                for (Map.Entry<String, AttrValue> entry : tag.getAttributes().entrySet()) {
+                    sb.append(' ');
+                    sb.append(entry.getKey());
                     AttrValue value = entry.getValue();
                     if (!value.isEmpty()) {
-                        sb2.append("=");
-                        sb2.append(value.quoteIfNeeded());
-                    } 
-                    return sb2.toString();
-                }).collect(Collectors.joining(" ")));
+                        sb.append('=');
+                        sb.append(value.quoteIfNeeded());
+                    }
+                }
             }
             sb.append('>');
             break;
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.CursorElement;
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
+
+/**
+ * Serializes elements into an {@link Appendable}, producing the same markup as
+ * {@link HtmlStreams#TO_HTML} without creating a String per element.
+ *
+ * Characters are collected in a buffer that is reused for the whole document
+ * and handed to the target when it is full, on {@link #flush()} and when an
+ * {@link org.apache.sling.tagmodifier.ElementType#EOF} element is written.
+ * {@link org.apache.sling.tagmodifier.Tag#stream} does not return the end of
+ * the document, so flush the writer once the stream is consumed.
+ *
+ * <pre>
+ * HtmlWriter html = new HtmlWriter(writer);
+ * Tag.stream(in).map(mapping).forEach(html);
+ * html.flush();
+ * </pre>
+ *
+ * IOExceptions of the target are rethrown as {@link UncheckedIOException}.
+ */
+public class HtmlWriter implements Consumer<Element>, Flushable, Closeable {
+
+    private static final int DEFAULT_SIZE = 8192;
+
+    private final Appendable out;
+    private final char[] buffer;
+    private final CharBuffer view;
+    private int count;
+
+    public HtmlWriter(Appendable out) {
+        this(out, DEFAULT_SIZE);
+    }
+
+    public HtmlWriter(Appendable out, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size <= 0");
+        }
+        this.out = out;
+        this.buffer = new char[bufferSize];
+        this.view = CharBuffer.wrap(buffer);
+    }
+
+    @Override
+    public void accept(Element element) {
+        switch (element.getType()) {
+        case COMMENT:
+            write("<!--");
+            write(value(element));
+            write("-->");
+            break;
+        case DOCTYPE:
+            write("<!");
+            write(value(element));
+            write('>');
+            break;
+        case END_TAG:
+            write("</");
+            write(value(element));
+            write('>');
+            break;
+        case EOF:
+            flush();
+            break;
+        case START_TAG:
+            write('<');
+            write(value(element));
+            if (element instanceof StartTag && ((StartTag) element).getAttributeSource() != null) {
+                // unchanged tags are written as they were read
+                StartTag tag = (StartTag) element;
+                write(tag.getAttributeSource());
+                write(tag.getSelfClosing() ? "/>" : ">");
+                break;
+            }
+            if (element.hasAttributes()) {
+                for (Map.Entry<String, AttrValue> entry : element.getAttributes().entrySet()) {
+                    write(' ');
+                    write(entry.getKey());
+                    AttrValue value = entry.getValue();
+                    if (!value.isEmpty()) {
+                        write('=');
+                        if (value.shouldBeQuoted()) {
+                            writeQuoted(value.getValue());
+                        } else {
+                            write(value.getValue());
+                        }
+                    }
+                }
+            }
+            write('>');
+            break;
+        case TEXT:
+            write(value(element));
+        }
+    }
+
+    /**
+     * Hands the buffered characters to the target, and flushes the target if it
+     * is {@link Flushable}.
+     */
+    @Override
+    public void flush() {
+        drain();
+        if (out instanceof Flushable) {
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Flushes the buffer and closes the target if it is {@link Closeable}.
+     */
+    @Override
+    public void close() throws IOException {
+        drain();
+        if (out instanceof Closeable) {
+            ((Closeable) out).close();
+        }
+    }
+
+    private static CharSequence value(Element element) {
+        if (element instanceof CursorElement) {
+            return ((CursorElement) element).getValueSequence();
+        }
+        return element.getValue();
+    }
+
+    private void write(char c) {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = c;
+    }
+
+    private void write(CharSequence chars) {
+        int length = chars.length();
+        if (length > buffer.length) {
+            drain();
+            append(chars);
+            return;
+        }
+        if (count + length > buffer.length) {
+            drain();
+        }
+        if (chars instanceof String) {
+            ((String) chars).getChars(0, length, buffer, count);
+            count += length;
+        } else {
+            for (int i = 0; i < length; ++i) {
+                buffer[count++] = chars.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Writes the value in double quotes, quotes in the value are escaped.
+     */
+    private void writeQuoted(String value) {
+        write('"');
+        int start = 0;
+        int index;
+        while ((index = value.indexOf('"', start)) >= 0) {
+            write(value.subSequence(start, index));
+            write("&quot;");
+            start = index + 1;
+        }
+        write(start == 0 ? value : value.substring(start));
+        write('"');
+    }
+
+    private void drain() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            if (out instanceof Writer) {
+                ((Writer) out).write(buffer, 0, count);
+            } else if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(buffer, 0, count);
+            } else {
+                out.append(view, 0, count);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    private void append(CharSequence chars) {
+        try {
+            out.append(chars);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A subset of CSS selectors.
+ *
+ * Supported are type selectors and {@code *}, {@code #id}, {@code .class},
+ * the attribute selectors {@code [attr]}, {@code [attr=value]},
+ * {@code [attr~=value]}, {@code [attr^=value]}, {@code [attr$=value]} and
+ * {@code [attr*=value]}, the descendant and child combinators and groups
+ * separated by commas. Tag names are matched case insensitively.
+ */
+public final class Selector {
+
+    /**
+     * The nodes a selector is matched against, identified by an int.
+     */
+    interface Tree {
+
+        /**
+         * @return the parent element of the node or -1 if it has none
+         */
+        int parent(int node);
+
+        /**
+         * @param name lower case tag name
+         * @return true if the tag name of the node equals the name ignoring case
+         */
+        boolean nameEquals(int node, String name);
+
+        /**
+         * @return the value of the attribute, an empty String for an attribute
+         *         without a value or null if the node does not have the attribute
+         */
+        String attribute(int node, String name);
+    }
+
+    private static final char EXISTS = 0;
+
+    private final String source;
+    private final Compound[][] groups;
+
+    private Selector(String source, Compound[][] groups) {
+        this.source = source;
+        this.groups = groups;
+    }
+
+    /**
+     * @param selector the selector
+     * @return the parsed selector
+     * @throws IllegalArgumentException if the selector can not be parsed
+     */
+    public static Selector parse(String selector) {
+        return new Parser(selector).parse();
+    }
+
+    /**
+     * Creates a filter for the elements of a {@link org.apache.sling.tagmodifier.Tag#stream}
+     * that lets the matching start tags pass.
+     *
+     * @return a new filter, for one stream
+     */
+    public SelectorFilter filter() {
+        return new SelectorFilter(this);
+    }
+
+    /**
+     * @return the names of the attributes the selector tests
+     */
+    String[] attributeNames() {
+        List<String> names = new ArrayList<>();
+        for (Compound[] group : groups) {
+            for (Compound compound : group) {
+                for (String name : compound.attributes) {
+                    if (!names.contains(name)) {
+                        names.add(name);
+                    }
+                }
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * @return true if the node matches any selector of the group
+     */
+    boolean matches(Tree tree, int node) {
+        for (Compound[] group : groups) {
+            if (matches(tree, node, group, group.length - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(Tree tree, int node, Compound[] compounds, int index) {
+        Compound compound = compounds[index];
+        if (!compound.matches(tree, node)) {
+            return false;
+        }
+        if (index == 0) {
+            return true;
+        }
+        int parent = tree.parent(node);
+        if (compound.child) {
+            return parent >= 0 && matches(tree, parent, compounds, index - 1);
+        }
+        for (int ancestor = parent; ancestor >= 0; ancestor = tree.parent(ancestor)) {
+            if (matches(tree, ancestor, compounds, index - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * A type selector with its id, class and attribute conditions.
+     */
+    private static final class Compound {
+
+        private String name;
+        private final List<String> attributes = new ArrayList<>();
+        private final List<String> values = new ArrayList<>();
+        private final StringBuilder operators = new StringBuilder();
+        // the combinator towards the previous compound is '>'
+        private boolean child;
+
+        boolean matches(Tree tree, int node) {
+            if (name != null && !tree.nameEquals(node, name)) {
+                return false;
+            }
+            for (int i = 0; i < attributes.size(); ++i) {
+                String actual = tree.attribute(node, attributes.get(i));
+                if (actual == null || !test(operators.charAt(i), actual, values.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean test(char operator, String actual, String expected) {
+            switch (operator) {
+            case EXISTS:
+                return true;
+            case '=':
+                return actual.equals(expected);
+            case '~':
+                return containsWord(actual, expected);
+            case '^':
+                return !expected.isEmpty() && actual.startsWith(expected);
+            case '$':
+                return !expected.isEmpty() && actual.endsWith(expected);
+            case '*':
+                return !expected.isEmpty() && actual.contains(expected);
+            default:
+                return false;
+            }
+        }
+
+        private static boolean containsWord(String list, String word) {
+            if (word.isEmpty()) {
+                return false;
+            }
+            int from = 0;
+            int index;
+            while ((index = list.indexOf(word, from)) >= 0) {
+                int end = index + word.length();
+                if ((index == 0 || Character.isWhitespace(list.charAt(index - 1)))
+                        && (end == list.length() || Character.isWhitespace(list.charAt(end)))) {
+                    return true;
+                }
+                from = index + 1;
+            }
+            return false;
+        }
+    }
+
+    private static final class Parser {
+
+        private final String source;
+        private int position;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        Selector parse() {
+            List<Compound[]> groups = new ArrayList<>();
+            List<Compound> compounds = new ArrayList<>();
+            boolean child = false;
+            skipSpace();
+            while (position < source.length()) {
+                Compound compound = compound();
+                compound.child = child;
+                compounds.add(compound);
+                boolean space = skipSpace();
+                child = false;
+                if (position == source.length()) {
+                    break;
+                }
+                char c = source.charAt(position);
+                if (c == ',') {
+                    ++position;
+                    groups.add(compounds.toArray(new Compound[0]));
+                    compounds.clear();
+                    skipSpace();
+                    if (position == source.length()) {
+                        throw error("selector expected");
+                    }
+                } else if (c == '>') {
+                    ++position;
+                    child = true;
+                    skipSpace();
+                } else if (!space) {
+                    throw error("unexpected character");
+                }
+            }
+            if (compounds.isEmpty() || child) {
+                throw error("selector expected");
+            }
+            groups.add(compounds.toArray(new Compound[0]));
+            return new Selector(source, groups.toArray(new Compound[0][]));
+        }
+
+        private Compound compound() {
+            Compound compound = new Compound();
+            int start = position;
+            if (peek() == '*') {
+                ++position;
+            } else if (isNameChar(peek())) {
+                compound.name = name().toLowerCase(Locale.ROOT);
+            }
+            while (position < source.length()) {
+                char c = source.charAt(position);
+                if (c == '#') {
+                    ++position;
+                    condition(compound, "id", '=', name());
+                } else if (c == '.') {
+                    ++position;
+                    condition(compound, "class", '~', name());
+                } else if (c == '[') {
+                    ++position;
+                    attribute(compound);
+                } else {
+                    break;
+                }
+            }
+            if (position == start) {
+                throw error("selector expected");
+            }
+            return compound;
+        }
+
+        private void attribute(Compound compound) {
+            skipSpace();
+            String attribute = name();
+            skipSpace();
+            char c = peek();
+            if (c == ']') {
+                ++position;
+                condition(compound, attribute, EXISTS, null);
+                return;
+            }
+            char operator;
+            if (c == '=') {
+                operator = '=';
+                ++position;
+            } else if ((c == '~' || c == '^' || c == '$' || c == '*') && position + 1 < source.length()
+                    && source.charAt(position + 1) == '=') {
+                operator = c;
+                position += 2;
+            } else {
+                throw error("attribute operator expected");
+            }
+            skipSpace();
+            String value;
+            c = peek();
+            if (c == '"' || c == '\'') {
+                int end = source.indexOf(c, position + 1);
+                if (end < 0) {
+                    throw error("unterminated string");
+                }
+                value = source.substring(position + 1, end);
+                position = end + 1;
+            } else {
+                // unquoted, up to the end of the condition
+                int start = position;
+                while (position < source.length() && source.charAt(position) != ']'
+                        && !Character.isWhitespace(source.charAt(position))) {
+                    ++position;
+                }
+                if (start == position) {
+                    throw error("value expected");
+                }
+                value = source.substring(start, position);
+            }
+            skipSpace();
+            if (peek() != ']') {
+                throw error("']' expected");
+            }
+            ++position;
+            condition(compound, attribute, operator, value);
+        }
+
+        private static void condition(Compound compound, String attribute, char operator, String value) {
+            compound.attributes.add(attribute);
+            compound.operators.append(operator);
+            compound.values.add(value);
+        }
+
+        private String name() {
+            int start = position;
+            while (position < source.length() && isNameChar(source.charAt(position))) {
+                ++position;
+            }
+            if (start == position) {
+                throw error("name expected");
+            }
+            return source.substring(start, position);
+        }
+
+        private boolean skipSpace() {
+            int start = position;
+            while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+                ++position;
+            }
+            return position > start;
+        }
+
+        private char peek() {
+            return position < source.length() ? source.charAt(position) : 0;
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == ':' || c > 0x7f;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at " + position + " in '" + source + "'");
+        }
+    }
+
+}
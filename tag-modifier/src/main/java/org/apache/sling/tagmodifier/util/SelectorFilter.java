@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import org.apache.sling.tagmodifier.AttrValue;
+import org.apache.sling.tagmodifier.CursorElement;
+import org.apache.sling.tagmodifier.Element;
+
+/**
+ * Matches a {@link Selector} against a stream of elements in one pass.
+ *
+ * No tree is built. The filter keeps a stack of the open elements with their
+ * names and the attributes the selector looks at, so its memory is bounded by
+ * the depth of the document. Start tags are matched as they pass, every other
+ * element is rejected.
+ *
+ * <pre>
+ * Tag.stream(inputStream).filter(Selector.parse("main a[href^=/content]").filter())
+ * </pre>
+ *
+ * The filter tracks the document it is passed, so it has to see every element
+ * in document order and can only be used for one sequential stream.
+ */
+public final class SelectorFilter implements Predicate<Element> {
+
+    private final Selector selector;
+    private final String[] attributes;
+    private final Stack stack = new Stack();
+
+    private String[] names = new String[16];
+    private String[][] values = new String[16][];
+    private int depth;
+
+    SelectorFilter(Selector selector) {
+        this.selector = selector;
+        this.attributes = selector.attributeNames();
+    }
+
+    /**
+     * @return true if the element is a start tag that matches the selector
+     */
+    @Override
+    public boolean test(Element element) {
+        switch (element.getType()) {
+        case START_TAG:
+            CharSequence name = value(element);
+            push(name, element);
+            boolean matches = selector.matches(stack, depth - 1);
+            if (!VoidElements.opensElement(element, name)) {
+                depth--;
+            }
+            return matches;
+        case END_TAG:
+            pop(value(element));
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the number of open elements
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private void push(CharSequence name, Element element) {
+        if (depth == names.length) {
+            names = Arrays.copyOf(names, depth * 2);
+            values = Arrays.copyOf(values, depth * 2);
+        }
+        names[depth] = name.toString();
+        if (attributes.length > 0) {
+            String[] attributeValues = values[depth];
+            if (attributeValues == null) {
+                attributeValues = values[depth] = new String[attributes.length];
+            }
+            for (int i = 0; i < attributes.length; ++i) {
+                attributeValues[i] = attribute(element, attributes[i]);
+            }
+        }
+        depth++;
+    }
+
+    /**
+     * Closes the innermost open element of the name, an end tag without an open
+     * element is ignored.
+     */
+    private void pop(CharSequence name) {
+        for (int i = depth - 1; i >= 0; --i) {
+            if (names[i].contentEquals(name) || names[i].equalsIgnoreCase(name.toString())) {
+                for (int j = i; j < depth; ++j) {
+                    names[j] = null;
+                }
+                depth = i;
+                return;
+            }
+        }
+    }
+
+    private static CharSequence value(Element element) {
+        if (element instanceof CursorElement) {
+            return ((CursorElement) element).getValueSequence();
+        }
+        return element.getValue();
+    }
+
+    private static String attribute(Element element, String name) {
+        if (element instanceof CursorElement) {
+            CursorElement cursor = (CursorElement) element;
+            // the last one wins, as in the attribute map
+            for (int i = cursor.getAttributeCount() - 1; i >= 0; --i) {
+                if (name.contentEquals(cursor.getAttributeName(i))) {
+                    CharSequence value = cursor.getAttributeValue(i);
+                    return value == null ? "" : value.toString();
+                }
+            }
+            return null;
+        }
+        if (!element.supportsAttributes()) {
+            return null;
+        }
+        AttrValue value = element.getAttributes().get(name);
+        if (value == null) {
+            return null;
+        }
+        return value.isEmpty() ? "" : value.getValue();
+    }
+
+    /**
+     * The open elements, identified by their depth.
+     */
+    private final class Stack implements Selector.Tree {
+
+        @Override
+        public int parent(int node) {
+            return node - 1;
+        }
+
+        @Override
+        public boolean nameEquals(int node, String name) {
+            return VoidElements.equalsIgnoreCase(name, names[node]);
+        }
+
+        @Override
+        public String attribute(int node, String name) {
+            for (int i = 0; i < attributes.length; ++i) {
+                if (attributes[i].equals(name)) {
+                    return values[node][i];
+                }
+            }
+            return null;
+        }
+    }
+
+}
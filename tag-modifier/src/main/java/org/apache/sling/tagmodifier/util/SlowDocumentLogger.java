@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.tagmodifier.ParseStatistics;
+import org.apache.sling.tagmodifier.TagMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs the statistics of documents that took long to parse, were large or
+ * could not be parsed to the end.
+ *
+ * <pre>
+ * TagIterator.lazy(is, "UTF-8").measure(new SlowDocumentLogger(50, 0))
+ * </pre>
+ */
+public class SlowDocumentLogger implements TagMetrics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlowDocumentLogger.class);
+
+    private final long thresholdNanos;
+    private final long thresholdBytes;
+
+    /**
+     * @param thresholdMillis parse time from which a document is logged, 0 to
+     *                        not log by time
+     * @param thresholdBytes  size from which a document is logged, 0 to not log
+     *                        by size
+     */
+    public SlowDocumentLogger(long thresholdMillis, long thresholdBytes) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * @param statistics of a document
+     * @return true if the document is logged
+     */
+    public boolean isLogged(ParseStatistics statistics) {
+        return !statistics.isComplete()
+                || thresholdNanos > 0 && statistics.getParseTime(TimeUnit.NANOSECONDS) >= thresholdNanos
+                || thresholdBytes > 0 && statistics.getBytes() >= thresholdBytes;
+    }
+
+    @Override
+    public void parsed(ParseStatistics statistics) {
+        if (isLogged(statistics)) {
+            LOG.warn("Slow or failed HTML document {}", statistics);
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.sling.tagmodifier.util;
+
+import org.apache.sling.tagmodifier.Element;
+import org.apache.sling.tagmodifier.impl.tag.ReusableElement;
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
+
+/**
+ * The HTML elements that never have content, and the checks to tell whether
+ * a start tag opens an element.
+ */
+final class VoidElements {
+
+    private static final String[] NAMES = { "area", "base", "br", "col", "embed", "hr", "img", "input", "link",
+            "meta", "param", "source", "track", "wbr" };
+
+    private VoidElements() {
+    }
+
+    /**
+     * @return true if the tag name is the name of a void element, ignoring case
+     */
+    static boolean contains(CharSequence name) {
+        for (String candidate : NAMES) {
+            if (equalsIgnoreCase(candidate, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a start tag is followed by content and an end tag
+     */
+    static boolean opensElement(Element element, CharSequence name) {
+        return !contains(name) && !isSelfClosing(element);
+    }
+
+    static boolean equalsIgnoreCase(String lowerName, CharSequence name) {
+        if (lowerName.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c != lowerName.charAt(i) && Character.toLowerCase(c) != lowerName.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSelfClosing(Element element) {
+        if (element instanceof StartTag) {
+            return ((StartTag) element).getSelfClosing();
+        }
+        return element instanceof ReusableElement && ((ReusableElement) element).getSelfClosing();
+    }
+
+}
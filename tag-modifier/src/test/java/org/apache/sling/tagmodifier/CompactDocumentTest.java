@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.util.CompactDocument;
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.apache.sling.tagmodifier.util.Selector;
+import org.apache.sling.tagmodifier.util.SelectorFilter;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class CompactDocumentTest {
+
+    private static final String HTML = "<html><body><div id=\"main\" class=\"a b\"><p>one<br>two</p>"
+            + "<p class=\"b\">three</p></div><ul><li>x</li><li title='say \"hi\"'>y</li></ul></body></html>";
+
+    @Test
+    public void sameTextAsStream() {
+        String expected = Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8")
+                .filter(element -> element.getType() == ElementType.TEXT)
+                .map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        CompactDocument document = CompactDocument
+                .build(Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8"));
+        StringBuilder text = new StringBuilder();
+        for (int node = 0; node < document.size(); ++node) {
+            if (document.getType(node) == ElementType.TEXT) {
+                text.append(document.getText(node));
+            }
+        }
+        assertEquals(expected, text.toString());
+
+        String html = document.toString();
+        assertEquals(html, CompactDocument.build(Tag.stream(html)).toString());
+    }
+
+    @Test
+    public void tree() {
+        CompactDocument document = CompactDocument.build(Tag.stream(HTML));
+        int div = document.selectFirst("div");
+        assertEquals("div", document.getName(div));
+        assertEquals("main", document.getAttributeValue(div, "id"));
+        int p = document.getFirstChild(div);
+        assertEquals("p", document.getName(p));
+        assertEquals(div, document.getParent(p));
+        // br has no children, two is a sibling
+        int br = document.getNextSibling(document.getFirstChild(p));
+        assertEquals("br", document.getName(br));
+        assertEquals(-1, document.getFirstChild(br));
+        assertEquals("two", document.getText(document.getNextSibling(br)));
+        assertNull(document.getAttributeValue(p, "class"));
+    }
+
+    @Test
+    public void select() {
+        CompactDocument document = CompactDocument.build(Tag.stream(HTML));
+        assertEquals(2, document.select("p").length);
+        assertEquals(1, document.select("#main").length);
+        assertEquals(2, document.select(".b").length);
+        assertEquals(1, document.select("div > p.b").length);
+        assertEquals(2, document.select("body li").length);
+        assertEquals(0, document.select("ul > p").length);
+        assertEquals(3, document.select("p, [title]").length);
+        assertEquals(1, document.select("li[title*=hi]").length);
+        assertEquals(1, document.select("[class^=a]").length);
+    }
+
+    @Test
+    public void toHtml() {
+        String html = CompactDocument.build(Tag.stream("<p>a</p></div><b title='x\"y'>b<i>c</b>")).toString();
+        assertEquals("<p>a</p><b title=\"x&quot;y\">b<i>c</b>", html);
+    }
+
+    @Test
+    public void toDocument() {
+        Document document = CompactDocument.build(Tag.stream(HTML)).toDocument();
+        assertEquals("html", document.getDocumentElement().getNodeName());
+        assertEquals(2, document.getElementsByTagName("li").getLength());
+        assertEquals("three", document.getElementsByTagName("p").item(1).getTextContent());
+    }
+
+    @Test
+    public void filterMatchesSelect() {
+        CompactDocument document = CompactDocument.build(Tag.stream(HTML));
+        String[] selectors = { "p", "#main", ".b", "div > p.b", "body li", "ul > p", "p, [title]", "html br" };
+        for (String selector : selectors) {
+            assertEquals(selector, document.select(selector).length,
+                    Tag.stream(HTML).filter(Selector.parse(selector).filter()).count());
+        }
+    }
+
+    @Test
+    public void filterTracksOpenElements() {
+        String html = "<main><p><a href=\"/content/a\">a</a><br><a href=\"/etc/b\">b</a></p></span>"
+                + "<a href=\"/content/c\">c</a></main><a href=\"/content/d\">d</a>";
+        SelectorFilter filter = Selector.parse("main a[href^=/content]").filter();
+        List<String> hrefs = new ArrayList<>();
+        TagIterator.cursor(html).forEachRemaining(element -> {
+            if (filter.test(element)) {
+                hrefs.add(((CursorElement) element).getAttributeValue(0).toString());
+            }
+        });
+        assertEquals(Arrays.asList("/content/a", "/content/c"), hrefs);
+        assertEquals(0, filter.getDepth());
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.junit.Test;
+
+public class CursorModeTest {
+
+    // text recovered from broken tags keeps the quotes of attribute values in
+    // cursor mode, the default mode drops them
+    private static String unquoted(Element element) {
+        return HtmlStreams.TO_HTML.apply(element).replace("\"", "");
+    }
+
+    private static List<String> cursor(TagIterator iterator) {
+        List<String> result = new ArrayList<>();
+        while (iterator.hasNext()) {
+            result.add(unquoted(((CursorElement) iterator.next()).copy()));
+        }
+        return result;
+    }
+
+    @Test
+    public void sameElementsAsDefaultMode() {
+        List<String> expected = Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8")
+                .map(CursorModeTest::unquoted).collect(Collectors.toList());
+        assertEquals(expected, cursor(TagIterator.cursor(getClass().getResourceAsStream("/demo.html"), "UTF-8")));
+    }
+
+    @Test
+    public void unusualHtml() {
+        List<String> expected = Tag.stream(getClass().getResourceAsStream("/fail.html"), "UTF-8")
+                .map(CursorModeTest::unquoted).collect(Collectors.toList());
+        assertEquals(expected, cursor(TagIterator.cursor(getClass().getResourceAsStream("/fail.html"), "UTF-8")));
+    }
+
+    @Test
+    public void elementsAreReused() {
+        TagIterator iterator = TagIterator.cursor("<a href=\"/x\" download>one</a><b class=\"c\">two</b>");
+        CursorElement first = (CursorElement) iterator.next();
+        assertEquals(ElementType.START_TAG, first.getType());
+        assertTrue(first.getValueSequence().toString().equals("a"));
+        assertEquals(2, first.getAttributeCount());
+        assertEquals("href", first.getAttributeName(0).toString());
+        assertEquals("/x", first.getAttributeValue(0).toString());
+        assertEquals("download", first.getAttributeName(1).toString());
+        assertNull(first.getAttributeValue(1));
+        assertEquals("/x", first.getAttributeValue("href"));
+        assertFalse(first.containsAttribute("class"));
+
+        Element kept = first.copy();
+        iterator.next();
+        iterator.next();
+        CursorElement second = (CursorElement) iterator.next();
+        assertSame(first, second);
+        assertEquals("b", second.getValue());
+        assertEquals("c", second.getAttributeValue("class"));
+        assertEquals("a", kept.getValue());
+        assertEquals("/x", kept.getAttributeValue("href"));
+    }
+
+}
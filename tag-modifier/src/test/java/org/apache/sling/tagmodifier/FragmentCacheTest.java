@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.junit.Test;
+
+public class FragmentCacheTest {
+
+    private static final String FOOTER = "<!DOCTYPE html><footer class=\"page\"><a href='/imprint'>Imprint</a>"
+            + "<!-- links --><br/></footer>";
+
+    private String demo() throws IOException {
+        try (InputStream is = getClass().getResourceAsStream("/demo.html")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void replaysTheSameElements() throws IOException {
+        String demo = demo();
+        FragmentCache cache = new FragmentCache(1024 * 1024);
+        String expected = Tag.stream(TagIterator.lazy(demo)).map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(expected, cache.stream(demo).map(HtmlStreams.TO_HTML).collect(Collectors.joining()));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void elementsAreNotShared() {
+        FragmentCache cache = new FragmentCache(1024);
+        cache.stream(FOOTER).filter(element -> element.getType() == ElementType.START_TAG)
+                .forEach(element -> element.setAttribute("data-seen", "true"));
+        String html = cache.stream(FOOTER).map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        assertEquals(Tag.stream(TagIterator.lazy(FOOTER)).map(HtmlStreams.TO_HTML).collect(Collectors.joining()),
+                html);
+    }
+
+    @Test
+    public void keyedFragmentsFollowTheEtag() {
+        FragmentCache cache = new FragmentCache(1024);
+        AtomicInteger reads = new AtomicInteger();
+        cache.stream("/footer", "1", () -> {
+            reads.incrementAndGet();
+            return FOOTER;
+        }).count();
+        cache.stream("/footer", "1", () -> {
+            reads.incrementAndGet();
+            return FOOTER;
+        }).count();
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.stream("/footer", "2", () -> {
+            reads.incrementAndGet();
+            return "<p>";
+        }).count());
+        assertEquals(2, reads.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() {
+        // room for two fragments
+        FragmentCache cache = new FragmentCache(20);
+        cache.stream("<p>a</p>");
+        cache.stream("<p>b</p>");
+        cache.stream("<p>a</p>");
+        cache.stream("<p>c</p>");
+        assertEquals(1, cache.getHitCount());
+        cache.stream("<p>a</p>");
+        assertEquals(2, cache.getHitCount());
+        cache.stream("<p>b</p>");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.size());
+    }
+
+}
@@ -18,18 +18,47 @@
 package org.apache.sling.tagmodifier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.apache.sling.rewriter.Generator;
 import org.apache.sling.tagmodifier.Element;
 import org.apache.sling.tagmodifier.ElementType;
 import org.apache.sling.tagmodifier.Tag;
 import org.apache.sling.tagmodifier.TagMapping;
 import org.apache.sling.tagmodifier.consumer.HtmlSAXSupport;
+import org.apache.sling.tagmodifier.impl.CharSequenceCharStream;
+import org.apache.sling.tagmodifier.impl.CursorTagParser;
+import org.apache.sling.tagmodifier.impl.InterningTokenManager;
+import org.apache.sling.tagmodifier.impl.LazyTagParser;
+import org.apache.sling.tagmodifier.impl.RingCharStream;
+import org.apache.sling.tagmodifier.impl.SimpleCharStream;
+import org.apache.sling.tagmodifier.impl.TagParser;
+import org.apache.sling.tagmodifier.impl.components.StreamingHtmlGeneratorFactory;
+import org.apache.sling.tagmodifier.impl.components.TagHtmlParser;
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
 import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.apache.sling.tagmodifier.util.HtmlWriter;
+import org.apache.sling.tagmodifier.util.SlowDocumentLogger;
 import org.junit.Before;
 import org.junit.Test;
 import org.xml.sax.Attributes;
@@ -76,6 +105,169 @@ public class HtmlParseTest {
         stream.forEach(support);
     }
 
+    private static class RecordingHandler extends DefaultHandler2 {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < attributes.getLength(); ++i) {
+                names.add(attributes.getQName(i) + "=" + attributes.getValue(i));
+            }
+            Collections.sort(names);
+            events.add("<" + qName + names);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            events.add("</" + qName);
+        }
+
+        // text recovered from broken tags keeps the quotes of attribute values in
+        // cursor mode
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            events.add(new String(ch, start, length).replace("\"", ""));
+        }
+    }
+
+    @Test
+    public void docParseSAXCursorTest() throws Exception {
+        RecordingHandler expected = new RecordingHandler();
+        stream.forEach(new HtmlSAXSupport(expected, null));
+
+        RecordingHandler handler = new RecordingHandler();
+        new TagHtmlParser().parse(getClass().getResourceAsStream("/demo.html"), "UTF-8", handler);
+        assertEquals(expected.events, handler.events);
+    }
+
+    private static TagHtmlParser.Config config(boolean recoveryMode) {
+        return new TagHtmlParser.Config() {
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return TagHtmlParser.Config.class;
+            }
+
+            @Override
+            public long slowDocumentMillis() {
+                return 0;
+            }
+
+            @Override
+            public long slowDocumentBytes() {
+                return 0;
+            }
+
+            @Override
+            public boolean recoveryMode() {
+                return recoveryMode;
+            }
+        };
+    }
+
+    @Test
+    public void docParseSAXRecoveryModeTest() throws Exception {
+        // the default configuration does not change the output
+        RecordingHandler expected = new RecordingHandler();
+        stream.forEach(new HtmlSAXSupport(expected, null));
+        RecordingHandler handler = new RecordingHandler();
+        new TagHtmlParser() {
+            {
+                activate(config(false));
+            }
+        }.parse(getClass().getResourceAsStream("/demo.html"), "UTF-8", handler);
+        assertEquals(expected.events, handler.events);
+
+        // in recovery mode malformed tags are returned as text up to the next tag
+        RecordingHandler recovered = new RecordingHandler();
+        Tag.stream(new TagIterator(getClass().getResourceAsStream("/demo.html"), "UTF-8").recovering(null))
+                .forEach(new HtmlSAXSupport(recovered, null));
+        handler = new RecordingHandler();
+        new TagHtmlParser() {
+            {
+                activate(config(true));
+            }
+        }.parse(getClass().getResourceAsStream("/demo.html"), "UTF-8", handler);
+        assertEquals(recovered.events, handler.events);
+        assertNotEquals(expected.events, recovered.events);
+    }
+
+    @Test
+    public void cursorSAXAttributesTest() throws Exception {
+        List<String> attributes = new ArrayList<>();
+        HtmlSAXSupport support = new HtmlSAXSupport(new DefaultHandler2() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) {
+                for (int i = 0; i < atts.getLength(); ++i) {
+                    attributes.add(atts.getQName(i) + "=" + atts.getValue(i));
+                }
+                assertEquals("2", atts.getValue("href"));
+                assertEquals(-1, atts.getIndex("title"));
+            }
+        }, null);
+        TagIterator.cursor("<a href='1' class='x' href='2' data-a>").forEachRemaining(support);
+        // the last occurrence wins and keeps its position
+        assertEquals(Arrays.asList("class=x", "href=2", "data-a=null"), attributes);
+    }
+
+    @Test
+    public void longTextSAXTest() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5000) {
+            text.append("text without tags ");
+        }
+        StringBuilder received = new StringBuilder();
+        List<Integer> lengths = new ArrayList<>();
+        HtmlSAXSupport support = new HtmlSAXSupport(new DefaultHandler2() {
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                received.append(ch, start, length);
+                lengths.add(length);
+            }
+        }, null);
+        Tag.stream(new TagIterator("<p>" + text + "</p>")).forEach(support);
+        assertEquals(text.toString(), received.toString());
+        // passed on in chunks of a fixed buffer
+        assertEquals(5, lengths.size());
+    }
+
+    @Test
+    public void streamingGeneratorSAXTest() throws Exception {
+        RecordingHandler expected = new RecordingHandler();
+        Tag.stream(new TagIterator(getClass().getResourceAsStream("/demo.html"), "UTF-8").recovering(null))
+                .forEach(new HtmlSAXSupport(expected, null));
+
+        RecordingHandler handler = new RecordingHandler();
+        Generator generator = new StreamingHtmlGeneratorFactory().createGenerator();
+        generator.setContentHandler(handler);
+        PrintWriter writer = generator.getWriter();
+        char[] buffer = new char[1000];
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/demo.html"),
+                StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+                if (handler.events.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        }
+        // events are sent while the page is written
+        assertFalse(handler.events.isEmpty());
+        generator.finished();
+        assertEquals(expected.events, handler.events);
+    }
+
+    @Test
+    public void selfClosingStartTags() {
+        String html = "<p>a<br/><img src='x' /><input type='text'></p>";
+        List<Boolean> selfClosing = Tag.stream(new TagIterator(html))
+                .filter(element -> element.getType() == ElementType.START_TAG)
+                .map(element -> ((StartTag) element).getSelfClosing()).collect(Collectors.toList());
+        assertEquals(Arrays.asList(false, true, true, false), selfClosing);
+    }
+
     @Test
     public void docParseTagTest3() throws Exception {
         long count = stream.flatMap(TagMapping.map((element, process) -> {
@@ -109,6 +301,217 @@ public class HtmlParseTest {
         assertEquals(2928, count);
     }
 
+    @Test
+    public void charSequenceInputTest() throws Exception {
+        StringBuilder html = new StringBuilder();
+        try (Reader reader = new InputStreamReader(this.getClass().getResourceAsStream("/demo.html"), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                html.append(buffer, 0, read);
+            }
+        }
+        List<String> expected = stream.map(HtmlStreams.TO_HTML).collect(Collectors.toList());
+        assertEquals(expected, Tag.stream(html).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+        assertEquals(expected, Tag.stream(html.toString()).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+        assertEquals(expected, Tag.stream(new StringReader(html.toString())).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void htmlWriterTest() throws Exception {
+        List<Element> elements = stream.collect(Collectors.toList());
+        String expected = elements.stream().map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+
+        StringWriter writer = new StringWriter();
+        HtmlWriter htmlWriter = new HtmlWriter(writer, 16);
+        elements.forEach(htmlWriter);
+        htmlWriter.flush();
+        assertEquals(expected, writer.toString());
+
+        StringBuilder builder = new StringBuilder();
+        htmlWriter = new HtmlWriter(builder);
+        elements.forEach(htmlWriter);
+        htmlWriter.flush();
+        assertEquals(expected, builder.toString());
+    }
+
+    @Test
+    public void attributeValuesAreQuoted() throws Exception {
+        assertEquals("abc-d_1\u00e9", new AttrValue("abc-d_1\u00e9").quoteIfNeeded());
+        assertEquals("\"1a\"", new AttrValue("1a").quoteIfNeeded());
+        assertEquals("\"a b\"", new AttrValue("a b").quoteIfNeeded());
+        assertEquals("\"\"", new AttrValue("").quoteIfNeeded());
+        assertEquals("\"abc\n\"", new AttrValue("abc\n").quoteIfNeeded());
+        assertEquals("\"say &quot;hi&quot;\"", new AttrValue("say \"hi\"").getQuoted('"'));
+        assertEquals("'it&#39;s'", new AttrValue("it's").getQuoted('\''));
+
+        StringBuilder out = new StringBuilder();
+        new AttrValue("a\"b").appendTo(out);
+        assertEquals("\"a&quot;b\"", out.toString());
+
+        Element element = Tag.stream("<p>").findFirst().get();
+        element.setAttribute("title", "say \"hi\"");
+        String expected = "<p title=\"say &quot;hi&quot;\">";
+        assertEquals(expected, HtmlStreams.TO_HTML.apply(element));
+        StringWriter writer = new StringWriter();
+        HtmlWriter htmlWriter = new HtmlWriter(writer);
+        htmlWriter.accept(element);
+        htmlWriter.flush();
+        assertEquals(expected, writer.toString());
+    }
+
+    private static String sniffedText(byte[] bytes, String fallback, String expectedEncoding) {
+        TagIterator iterator = TagIterator.sniff(new ByteArrayInputStream(bytes), fallback);
+        String text = Tag.stream(iterator).filter(element -> element.getType() == ElementType.TEXT)
+                .map(Element::getValue).collect(Collectors.joining());
+        assertEquals(expectedEncoding, iterator.getEncoding());
+        return text;
+    }
+
+    @Test
+    public void encodingIsSniffed() throws Exception {
+        String html = "<!-- <meta charset=\"utf-8\"> --><head><meta name=\"x\"><meta charset='ISO-8859-1'></head>\u00e4";
+        assertEquals("\u00e4", sniffedText(html.getBytes(StandardCharsets.ISO_8859_1), "UTF-8", "ISO-8859-1"));
+
+        html = "<META HTTP-EQUIV=\"Content-Type\" CONTENT=\"text/html; charset=windows-1252\">\u00e4";
+        assertEquals("\u00e4", sniffedText(html.getBytes(StandardCharsets.ISO_8859_1), "UTF-8", "windows-1252"));
+
+        // content without the pragma does not count
+        html = "<meta content=\"text/html; charset=ISO-8859-1\">\u00e4";
+        assertEquals("\u00e4", sniffedText(html.getBytes(StandardCharsets.UTF_8), "UTF-8", "UTF-8"));
+
+        byte[] utf16 = "<p>\u00e4</p>".getBytes(StandardCharsets.UTF_16LE);
+        byte[] bom = new byte[utf16.length + 2];
+        bom[0] = (byte) 0xff;
+        bom[1] = (byte) 0xfe;
+        System.arraycopy(utf16, 0, bom, 2, utf16.length);
+        assertEquals("\u00e4", sniffedText(bom, "UTF-8", "UTF-16LE"));
+    }
+
+    @Test
+    public void parseIsMeasured() throws Exception {
+        StringBuilder html = new StringBuilder("<p class=\"a\">");
+        for (int i = 0; i < 1000; ++i) {
+            html.append("0123456789");
+        }
+        html.append("</p></a b><a href=\"x\"></a>");
+        List<ParseStatistics> reported = new ArrayList<>();
+        byte[] bytes = html.toString().getBytes(StandardCharsets.UTF_8);
+        TagIterator iterator = TagIterator.lazy(new ByteArrayInputStream(bytes), "UTF-8").measure(reported::add);
+        Tag.stream(iterator).count();
+        assertEquals(1, reported.size());
+        ParseStatistics statistics = reported.get(0);
+        assertEquals(bytes.length, statistics.getBytes());
+        assertEquals(2, statistics.getElementCount(ElementType.START_TAG));
+        assertEquals(2, statistics.getElementCount(ElementType.END_TAG));
+        assertEquals(1, statistics.getRecoveries());
+        assertEquals(2, statistics.getBufferExpansions());
+        assertEquals(true, statistics.isComplete());
+        assertEquals(false, new SlowDocumentLogger(0, bytes.length + 1).isLogged(statistics));
+        assertEquals(true, new SlowDocumentLogger(0, bytes.length).isLogged(statistics));
+    }
+
+    @Test
+    public void largeTokensSpillOutOfTheRing() throws Exception {
+        StringBuilder html = new StringBuilder("<p>\n<img alt=\"");
+        for (int i = 0; i < 1000; ++i) {
+            html.append("alt text ");
+        }
+        html.append("\">");
+        for (int i = 0; i < 1000; ++i) {
+            html.append("<b>a</b>\n");
+        }
+        html.append("</p>");
+        List<String> expected = Tag.stream(html).map(HtmlStreams.TO_HTML).collect(Collectors.toList());
+        for (boolean lines : new boolean[] { false, true }) {
+            RingCharStream in = new RingCharStream(new StringReader(html.toString()), 64, lines);
+            TagParser parser = new LazyTagParser(in);
+            List<String> parsed = new ArrayList<>();
+            for (Element element = parser.nextElement(); element.getType() != ElementType.EOF; element = parser
+                    .nextElement()) {
+                parsed.add(HtmlStreams.TO_HTML.apply(element));
+            }
+            assertEquals(expected, parsed);
+            // from 64 to 16384 characters for the alt attribute
+            assertEquals(8, in.getExpansionCount());
+            assertEquals(64, parser.getBufferSize());
+        }
+    }
+
+    @Test
+    public void linesAreTrackedOnRequest() throws Exception {
+        String html = "<p>\n<br>\n  <! x>";
+        for (boolean lines : new boolean[] { false, true }) {
+            TagParser parser = new LazyTagParser(new RingCharStream(new StringReader(html), 64, lines));
+            List<String> recoveries = new ArrayList<>();
+            parser.setRecovering((text, line, column, reason) -> recoveries.add(line + ":" + column));
+            while (parser.nextElement().getType() != ElementType.EOF) {
+                // parse to the end
+            }
+            assertEquals(lines ? "[3:3]" : "[0:0]", recoveries.toString());
+        }
+    }
+
+    @Test
+    public void rawTextIsOneElement() throws Exception {
+        String html = "<script>if (a<b && c>d) { x = '<p>' + '</scripts>'; }</SCRIPT ><p>a</p><style>p>b{}</style>"
+                + "<textarea><b>\n</textarea><script></script><b>b</b><style>\n</st";
+        List<String> expected = Arrays.asList("<script>", "if (a<b && c>d) { x = '<p>' + '</scripts>'; }", "</SCRIPT>",
+                "<p>", "a", "</p>", "<style>", "p>b{}", "</style>", "<textarea>", "<b>\n", "</textarea>", "<script>",
+                "</script>", "<b>", "b", "</b>", "<style>", "\n</st");
+        assertEquals(expected, Tag.stream(html).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, Tag.stream(new ByteArrayInputStream(bytes), "UTF-8").map(HtmlStreams.TO_HTML)
+                .collect(Collectors.toList()));
+        assertEquals(expected, Tag.stream(TagIterator.lazy(new ByteArrayInputStream(bytes), "UTF-8"))
+                .map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+        assertEquals(Arrays.asList("if (a<b && c>d) { x = '<p>' + '</scripts>'; }", "a", "p>b{}", "<b>\n", "b",
+                "\n</st"), Tag.stream(TagIterator.cursor(html)).filter(element -> element.getType() == ElementType.TEXT)
+                        .map(Element::getValue).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void rawTextKeepsLinesAndColumns() throws Exception {
+        StringBuilder body = new StringBuilder("\n\tif (a <b) {\r\n  x();\r}\n");
+        for (int i = 0; i < 400; ++i) {
+            body.append("\tvar s = '</scrip' + \"t>\";\r\n");
+        }
+        String html = "<Script>" + body + "</SCRIPT>\n<p>a<br>\r\n  <! x><STYLE>p\t{ }</style>\t<! y>";
+        // the body breaks 404 lines, a tab moves to the next multiple of 8
+        List<String> expected = Arrays.asList("407:3", "407:33");
+        List<Function<SimpleCharStream, TagParser>> parsers = Arrays.asList(
+                stream -> new TagParser(new InterningTokenManager(stream)), LazyTagParser::new, CursorTagParser::new);
+        for (Function<SimpleCharStream, TagParser> parser : parsers) {
+            assertEquals(expected, recoveries(parser.apply(new CharSequenceCharStream(html))));
+            assertEquals(expected, recoveries(parser.apply(new RingCharStream(new StringReader(html), 64, true))));
+        }
+        assertEquals(body.toString(), Tag.stream(html).skip(1).findFirst().get().getValue());
+    }
+
+    private static List<String> recoveries(TagParser parser) throws Exception {
+        List<String> recoveries = new ArrayList<>();
+        parser.setRecovering((text, line, column, reason) -> recoveries.add(line + ":" + column));
+        while (parser.nextElement().getType() != ElementType.EOF) {
+            // parse to the end
+        }
+        return recoveries;
+    }
+
+    @Test
+    public void namesAreInterned() throws Exception {
+        List<Element> first = Tag.stream("<div class=\"a\"><my-widget my-option=\"1\"></my-widget></div>").collect(Collectors.toList());
+        List<Element> second = Tag.stream("<div class=\"b\"></div>").collect(Collectors.toList());
+        assertSame(first.get(0).getValue(), second.get(0).getValue());
+        assertSame(first.get(0).getAttributes().keySet().iterator().next(), "class");
+        assertSame(first.get(1).getValue(), first.get(2).getValue());
+        assertSame(first.get(3).getValue(), second.get(1).getValue());
+
+        TagIterator cursor = TagIterator.cursor("<div class=\"c\">");
+        Element element = cursor.next();
+        assertSame(first.get(0).getValue(), element.getValue());
+        assertSame("class", element.getAttributes().keySet().iterator().next());
+    }
+
     @Test
     public void convertLinkAndPrintTest() throws Exception {
         //stream.flatMap(CONVERT_LINKS).map(HtmlStreams.TO_HTML).forEach(System.out::print);
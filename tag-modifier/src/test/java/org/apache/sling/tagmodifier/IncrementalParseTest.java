@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.impl.IncrementalTagParser;
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.junit.Test;
+
+public class IncrementalParseTest {
+
+    private static String read(String resource) throws IOException {
+        try (InputStream is = IncrementalParseTest.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> parseWhole(String html) {
+        return Tag.stream(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)), "UTF-8")
+                .map(HtmlStreams.TO_HTML).collect(Collectors.toList());
+    }
+
+    // the incremental parser runs in recovery mode
+    private static List<String> parseWholeRecovering(String html) {
+        return Tag.stream(new TagIterator(html).recovering(null)).map(HtmlStreams.TO_HTML)
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> parseIncrementally(String html, int chunkSize, int threshold) {
+        return parseIncrementally(html, chunkSize, threshold, Math.max(64 * 1024, threshold * 2));
+    }
+
+    private static List<String> parseIncrementally(String html, int chunkSize, int threshold, int maxPending) {
+        List<String> result = new ArrayList<>();
+        IncrementalTagParser parser = new IncrementalTagParser(element -> {
+            if (element.getType() != ElementType.EOF) {
+                result.add(HtmlStreams.TO_HTML.apply(element));
+            }
+        }, threshold, maxPending);
+        char[] chars = html.toCharArray();
+        for (int i = 0; i < chars.length; i += chunkSize) {
+            parser.write(chars, i, Math.min(chunkSize, chars.length - i));
+        }
+        parser.end();
+        return result;
+    }
+
+    @Test
+    public void sameElementsAsWholeDocument() throws Exception {
+        String html = read("/demo.html");
+        List<String> expected = parseWholeRecovering(html);
+        assertEquals(expected, parseIncrementally(html, 1, 1));
+        assertEquals(expected, parseIncrementally(html, 7, 64));
+        assertEquals(expected, parseIncrementally(html, 8192, 4096));
+    }
+
+    @Test
+    public void unusualDocument() throws Exception {
+        String html = read("/fail.html");
+        assertEquals(parseWholeRecovering(html), parseIncrementally(html, 3, 1));
+    }
+
+    @Test
+    public void rawTextIsNotSplit() {
+        String html = "<p>a</p><script>if (a<b && c>d) { x = '<p>'; }</script><p>b</p>";
+        assertEquals(parseWhole(html), parseIncrementally(html, 1, 1));
+    }
+
+    @Test
+    public void longRawTextIsCut() {
+        StringBuilder script = new StringBuilder();
+        while (script.length() < 1000) {
+            script.append("if (a<b && c>d) { x = '<p>'; } </scrip");
+        }
+        String html = "<p>a</p><script>" + script + "</script><p>b</p>";
+        // the script is returned in pieces of raw text
+        String expected = String.join("", parseWhole(html));
+        assertEquals(expected, String.join("", parseIncrementally(html, 1, 1, 64)));
+        assertEquals(expected, String.join("", parseIncrementally(html, 100, 16, 100)));
+    }
+
+    @Test
+    public void pendingCharactersAreBounded() {
+        List<String> result = new ArrayList<>();
+        IncrementalTagParser parser = new IncrementalTagParser(element -> result.add(HtmlStreams.TO_HTML.apply(element)),
+                16, 256);
+        char[] text = "no tags at all ".toCharArray();
+        for (int i = 0; i < 100; ++i) {
+            parser.write(text, 0, text.length);
+        }
+        // text without a boundary is parsed before the end of the document
+        assertTrue(result.size() > 0);
+        parser.write("<a href='".toCharArray(), 0, 9);
+        for (int i = 0; i < 100; ++i) {
+            parser.write(text, 0, text.length);
+        }
+        parser.write("'>b</a>".toCharArray(), 0, 7);
+        parser.end();
+        // the tag is not cut although it is longer than the maximum
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            expected.append(text);
+        }
+        String value = expected.toString();
+        expected.append("<a href=\"").append(value).append("\">b</a>");
+        assertEquals(expected.toString(), String.join("", result));
+    }
+
+    @Test
+    public void longMarkupIsNotCut() {
+        StringBuilder data = new StringBuilder("data:image/png;base64,");
+        while (data.length() < 70000) {
+            data.append("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA");
+        }
+        String html = "<p>a</p><img alt=\"x\" src=\"" + data + "\"><!--" + data + "--><p>b</p>";
+        List<String> expected = parseWhole(html);
+        assertEquals(8, expected.size());
+        assertTrue(expected.get(3).startsWith("<img src=\"" + data + "\""));
+        assertEquals("<!--" + data + "-->", expected.get(4));
+        assertEquals(expected, parseIncrementally(html, 1000, 4096));
+        assertEquals(expected, parseIncrementally(html, 1, 16, 256));
+        assertEquals(expected, push(html.getBytes(StandardCharsets.UTF_8), 4096));
+    }
+
+    private static List<String> parseInParallel(String html, int chunkSize) {
+        return Tag.parallelStream(html, chunkSize).map(HtmlStreams.TO_HTML).collect(Collectors.toList());
+    }
+
+    @Test
+    public void parallelStreamKeepsDocumentOrder() throws Exception {
+        StringBuilder html = new StringBuilder();
+        String demo = read("/demo.html");
+        for (int i = 0; i < 8; ++i) {
+            html.append(demo);
+        }
+        List<String> expected = parseWhole(html.toString());
+        assertEquals(expected, parseInParallel(html.toString(), 1));
+        assertEquals(expected, parseInParallel(html.toString(), 4096));
+        assertEquals(expected, Tag.parallelStream(html).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+
+        String fail = read("/fail.html");
+        assertEquals(parseWhole(fail), parseInParallel(fail, 1));
+        String raw = "<p>a</p><script>if (a<b && c>d) { x = '<p>'; }</script><p>b</p>";
+        assertEquals(parseWhole(raw), parseInParallel(raw, 1));
+    }
+
+    @Test
+    public void selfClosingRawTextElementHasNoContent() {
+        for (String start : new String[] { "<script src=\"x\"/>", "<style/>", "<textarea />" }) {
+            StringBuilder html = new StringBuilder(start);
+            for (int i = 0; i < 200; ++i) {
+                html.append("<p>x</p>");
+            }
+            html.append("<div>y</div></script></style></textarea><b>z</b>");
+            List<String> expected = parseWhole(html.toString());
+            assertEquals(start, 610, expected.size());
+            assertEquals(expected, parseWholeRecovering(html.toString()));
+            assertEquals(expected, parseIncrementally(html.toString(), 1, 1));
+            assertEquals(expected, parseIncrementally(html.toString(), 7, 64));
+            assertEquals(expected, push(html.toString().getBytes(StandardCharsets.UTF_8), 5));
+            assertEquals(expected, parseInParallel(html.toString(), 1));
+        }
+    }
+
+    private static List<String> push(byte[] bytes, int chunkSize) {
+        List<String> result = new ArrayList<>();
+        TagPushParser parser = new TagPushParser(element -> {
+            if (element.getType() != ElementType.EOF) {
+                result.add(HtmlStreams.TO_HTML.apply(element));
+            }
+        }, StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            parser.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+        }
+        parser.end();
+        return result;
+    }
+
+    @Test
+    public void pushParserDecodesSplitCharacters() throws Exception {
+        String html = read("/demo.html") + "<p>\u00e4\u20ac\ud83d\ude00</p>";
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = parseWholeRecovering(html);
+        assertEquals(expected, push(bytes, 1));
+        assertEquals(expected, push(bytes, 5));
+        assertEquals(expected, push(bytes, 4096));
+    }
+
+    @Test
+    public void pushParserEmitsCompleteElements() {
+        List<String> result = new ArrayList<>();
+        TagPushParser parser = new TagPushParser(element -> result.add(HtmlStreams.TO_HTML.apply(element)));
+        parser.feed(CharBuffer.wrap("<p>a</p><b"));
+        assertEquals(Arrays.asList("<p>", "a", "</p>"), result);
+        parser.feed(CharBuffer.wrap(">b</b>"));
+        parser.end();
+        assertEquals(Arrays.asList("<p>", "a", "</p>", "<b>", "b", "</b>", ""), result);
+    }
+
+    @Test
+    public void singleEndOfFile() {
+        List<ElementType> types = new ArrayList<>();
+        IncrementalTagParser parser = new IncrementalTagParser(element -> types.add(element.getType()), 1);
+        char[] chars = "<a>b</a><c>".toCharArray();
+        parser.write(chars, 0, chars.length);
+        parser.flush();
+        parser.end();
+        assertEquals(ElementType.EOF, types.get(types.size() - 1));
+        assertEquals(1, types.stream().filter(type -> type == ElementType.EOF).count());
+    }
+
+}
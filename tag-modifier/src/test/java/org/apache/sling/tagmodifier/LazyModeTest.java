@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.impl.tag.StartTag;
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.apache.sling.tagmodifier.util.HtmlWriter;
+import org.junit.Test;
+
+public class LazyModeTest {
+
+    // attributes in a stable order, recovered text without the quotes the
+    // default mode drops
+    private static String describe(Element element) {
+        if (element.getType() == ElementType.START_TAG) {
+            return element.getValue() + new TreeMap<>(element.getAttributes());
+        }
+        return HtmlStreams.TO_HTML.apply(element).replace("\"", "");
+    }
+
+    @Test
+    public void sameElementsAsDefaultMode() {
+        for (String resource : new String[] { "/demo.html", "/fail.html" }) {
+            List<String> expected = Tag.stream(getClass().getResourceAsStream(resource), "UTF-8")
+                    .map(LazyModeTest::describe).collect(Collectors.toList());
+            List<String> lazy = Tag.stream(TagIterator.lazy(getClass().getResourceAsStream(resource), "UTF-8"))
+                    .map(LazyModeTest::describe).collect(Collectors.toList());
+            assertEquals(resource, expected, lazy);
+        }
+    }
+
+    @Test
+    public void untouchedTagsKeepTheirSource() {
+        String html = "<p><a  href='/x' data-x = \"y\"\tdownload>one</a><br/><img src=\"a.png\" alt=''></p>";
+        String written = Tag.stream(TagIterator.lazy(html)).map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        assertEquals(html, written);
+
+        StringWriter out = new StringWriter();
+        HtmlWriter writer = new HtmlWriter(out);
+        Tag.stream(TagIterator.lazy(html)).forEach(writer);
+        writer.flush();
+        assertEquals(html, out.toString());
+    }
+
+    @Test
+    public void spaceBeforeTheEndOfTagIsKept() {
+        String html = "<a href=\"x\" >one</a><br /><img src=\"y\"\n/><p\t>two<hr\r\n  >";
+        String written = Tag.stream(TagIterator.lazy(html)).map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        assertEquals(html, written);
+
+        StringWriter out = new StringWriter();
+        HtmlWriter writer = new HtmlWriter(out);
+        Tag.stream(TagIterator.lazy(html)).forEach(writer);
+        writer.flush();
+        assertEquals(html, out.toString());
+
+        StartTag tag = (StartTag) TagIterator.lazy(html).next();
+        assertEquals("x", tag.getAttributeValue("href"));
+        assertEquals(1, tag.getAttributes().size());
+    }
+
+    @Test
+    public void attributesAreParsedOnAccess() {
+        StartTag tag = (StartTag) TagIterator.lazy("<a  href='/x' data-x = \"y\" download>").next();
+        assertNotNull(tag.getAttributeSource());
+        assertTrue(tag.hasAttributes());
+        assertNotNull(tag.getAttributeSource());
+
+        // reading does not change the tag
+        assertEquals("/x", tag.getAttributeValue("href"));
+        assertNotNull(tag.getAttributeSource());
+        assertEquals("y", tag.getAttributeValue("data-x"));
+        assertTrue(tag.getAttributes().get("download").isEmpty());
+        assertEquals(3, tag.getAttributes().size());
+
+        tag.setAttribute("href", "/y");
+        assertTrue(tag.isModified());
+        assertNull(tag.getAttributeSource());
+        assertEquals("/y", tag.getAttributeValue("href"));
+        assertEquals("[href, data-x, download]", tag.getAttributes().keySet().toString());
+
+        StartTag empty = (StartTag) TagIterator.lazy("<p >").next();
+        assertFalse(empty.hasAttributes());
+    }
+
+    @Test
+    public void changedTagsAreWrittenAgain() {
+        String html = "<a  href='/x' class=\"a\">one</a><img src='/i.png'  alt><b title='t'>";
+        String written = Tag.stream(TagIterator.lazy(html)).map(element -> {
+            // reading keeps the source
+            if (element.containsAttribute("title")) {
+                assertFalse(element.isModified());
+            }
+            if (element.containsAttribute("href")) {
+                element.setAttribute("href", "/y");
+            }
+            if (element.containsAttribute("src")) {
+                element.getAttributes().get("src").setValue("/j.png");
+            }
+            return element;
+        }).map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+        assertEquals("<a href=\"/y\" class=a>one</a><img src=\"/j.png\" alt><b title='t'>", written);
+    }
+
+}
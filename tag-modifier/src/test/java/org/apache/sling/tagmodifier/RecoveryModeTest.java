@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.junit.Test;
+
+public class RecoveryModeTest {
+
+    private static String elements(TagIterator iterator) {
+        return Tag.stream(iterator).map(element -> element.getType() + ":" + HtmlStreams.TO_HTML.apply(element))
+                .collect(Collectors.joining(" "));
+    }
+
+    @Test
+    public void streamRunsToTheEnd() {
+        String html = "<p>a<";
+        assertEquals("START_TAG:<p> TEXT:a", elements(TagIterator.lazy(html)));
+        assertEquals("START_TAG:<p> TEXT:a TEXT:<", elements(TagIterator.lazy(html).recovering(null)));
+
+        html = "<p>a</p><!DOCTYPE \"x><p>b</p>";
+        assertEquals("START_TAG:<p> TEXT:a END_TAG:</p> TEXT:<!DOCTYPE \"x> START_TAG:<p> TEXT:b END_TAG:</p>",
+                elements(TagIterator.lazy(html).recovering(null)));
+
+        html = "<! x><br>";
+        assertEquals("TEXT:<! x> START_TAG:<br>", elements(TagIterator.lazy(html).recovering(null)));
+    }
+
+    @Test
+    public void textExtendsToTheNextTag() {
+        String html = "<p></a b> c<br>";
+        assertEquals("START_TAG:<p> TEXT:</a b TEXT:> c START_TAG:<br>", elements(TagIterator.lazy(html)));
+        assertEquals("START_TAG:<p> TEXT:</a b> c START_TAG:<br>", elements(TagIterator.lazy(html).recovering(null)));
+    }
+
+    @Test
+    public void allModesRecover() {
+        String html = "<div>\n<a href=\"/x\">x</a b>\n<!DOCTYPE 'y></div>";
+        String expected = "START_TAG:<div> TEXT:\n START_TAG:<a href=\"/x\"> TEXT:x TEXT:</a b>\n"
+                + " TEXT:<!DOCTYPE 'y> END_TAG:</div>";
+        assertEquals(expected, elements(TagIterator.lazy(html).recovering(null)));
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, elements(TagIterator.lazy(new ByteArrayInputStream(bytes), "UTF-8").recovering(null)));
+        // cursor elements are only valid until the iterator is advanced
+        assertEquals("[\n, x, </a b>\n, <!DOCTYPE 'y>]", Tag.stream(TagIterator.cursor(html).recovering(null))
+                .filter(element -> element.getType() == ElementType.TEXT).map(Element::getValue)
+                .collect(Collectors.toList()).toString());
+        // the default mode drops quotes and the space before a token that could not be read
+        assertEquals(expected.replace("<!DOCTYPE 'y>", "<!DOCTYPE'y>"),
+                elements(new TagIterator(new ByteArrayInputStream(bytes), "UTF-8").recovering(null)));
+    }
+
+    @Test
+    public void recoveriesAreReported() {
+        List<String> reported = new ArrayList<>();
+        TagIterator iterator = TagIterator.lazy("<p>\n  </a b></p>\n<! x>").recovering(
+                (text, line, column, reason) -> reported.add(line + ":" + column + " " + text.getValue()));
+        List<ParseStatistics> statistics = new ArrayList<>();
+        assertEquals(6, Tag.stream(iterator.measure(statistics::add)).count());
+        assertEquals("[2:3 </a b>, 3:1 <! x>]", reported.toString());
+        assertEquals(2, statistics.get(0).getRecoveries());
+        assertEquals(true, statistics.get(0).isComplete());
+    }
+
+}
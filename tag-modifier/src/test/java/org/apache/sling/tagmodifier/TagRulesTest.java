@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.sling.tagmodifier;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.sling.tagmodifier.impl.tag.TextData;
+import org.apache.sling.tagmodifier.util.HtmlStreams;
+import org.junit.Test;
+
+public class TagRulesTest {
+
+    private static String absolute(String value) {
+        return value.startsWith("/") ? "http://www.apache.org" + value : value;
+    }
+
+    private static String apply(TagRules rules, String html) {
+        List<Element> result = new ArrayList<>();
+        Tag.stream(html).forEach(rules.into(result::add));
+        return result.stream().map(HtmlStreams.TO_HTML).collect(Collectors.joining());
+    }
+
+    @Test
+    public void sameAsTagMapping() {
+        List<String> expected = Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8")
+                .flatMap(TagMapping.map((element, process) -> {
+                    if (element.containsAttribute("href")) {
+                        element.setAttribute("href", absolute(element.getAttributeValue("href")));
+                    }
+                    if (element.containsAttribute("src")) {
+                        element.setAttribute("src", absolute(element.getAttributeValue("src")));
+                    }
+                    process.next(element);
+                })).map(HtmlStreams.TO_HTML).collect(Collectors.toList());
+
+        TagRules rules = TagRules.builder()
+                .on(ElementType.START_TAG).rewrite("href", TagRulesTest::absolute)
+                .on(ElementType.START_TAG).rewrite("src", TagRulesTest::absolute)
+                .build();
+        List<String> result = new ArrayList<>();
+        Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8")
+                .forEach(rules.into(element -> result.add(HtmlStreams.TO_HTML.apply(element))));
+        assertEquals(expected, result);
+
+        assertEquals(expected, Tag.stream(getClass().getResourceAsStream("/demo.html"), "UTF-8")
+                .flatMap(rules.flatMap()).map(HtmlStreams.TO_HTML).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void dispatchByNameAndAttribute() {
+        TagRules rules = TagRules.builder()
+                .on(ElementType.START_TAG, "a").having("href").rewrite("href", TagRulesTest::absolute)
+                .on(ElementType.COMMENT).drop()
+                .build();
+        assertEquals("<A href=\"http://www.apache.org/x\"><link href=\"/y\"><a name=z>",
+                apply(rules, "<A href=\"/x\"><link href=\"/y\"><!-- c --><a name=\"z\">"));
+    }
+
+    @Test
+    public void laterRulesSeeEmittedElements() {
+        TagRules rules = TagRules.builder()
+                .on(ElementType.START_TAG, "b").apply((element, mapping) -> mapping.next(element, new TextData("y")))
+                .on(ElementType.TEXT).apply((element, mapping) -> {
+                    ((TextData) element).setText(element.getValue().toUpperCase());
+                    mapping.next(element);
+                })
+                .build();
+        assertEquals("<b>YX</b><i>Z</i>", apply(rules, "<b>x</b><i>z</i>"));
+    }
+
+}